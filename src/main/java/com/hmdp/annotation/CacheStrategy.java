@@ -0,0 +1,24 @@
+package com.hmdp.annotation;
+
+/**
+ * 缓存注解使用的 CacheClient 策略
+ */
+public enum CacheStrategy {
+    /**
+     * 缓存空值解决缓存穿透，queryWithPassThrough
+     */
+    PASS_THROUGH,
+    /**
+     * 互斥锁解决缓存击穿，queryWithMutex
+     */
+    MUTEX,
+    /**
+     * 逻辑过期解决缓存击穿，queryWithLogicalExpire
+     * 缓存不存在时直接返回null，需要通过 @PutCache 或者预热提前写入
+     */
+    LOGICAL_EXPIRE,
+    /**
+     * 概率提前过期，queryWithProbabilisticExpire
+     */
+    PROBABILISTIC
+}
@@ -0,0 +1,26 @@
+package com.hmdp.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 删除缓存：方法正常返回后删除Redis和所有节点本地缓存中的key
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface EvictCache {
+
+    /**
+     * key前缀
+     */
+    String prefix();
+
+    /**
+     * key表达式(SpEL)，除了参数外还可以使用返回值 #result
+     */
+    String key();
+}
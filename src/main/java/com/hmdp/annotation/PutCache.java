@@ -0,0 +1,48 @@
+package com.hmdp.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 写缓存：方法正常返回后把返回值写入缓存，返回null时删除缓存
+ * strategy为LOGICAL_EXPIRE或PROBABILISTIC时写入带逻辑过期时间的格式
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface PutCache {
+
+    /**
+     * key前缀
+     */
+    String prefix();
+
+    /**
+     * key表达式(SpEL)，除了参数外还可以使用返回值 #result，例如 #result.id
+     */
+    String key();
+
+    /**
+     * 读取这个key时使用的缓存策略，决定写入的格式
+     */
+    CacheStrategy strategy() default CacheStrategy.PASS_THROUGH;
+
+    /**
+     * 过期时间
+     */
+    long ttl() default 30;
+
+    /**
+     * 过期时间的单位
+     */
+    TimeUnit unit() default TimeUnit.MINUTES;
+
+    /**
+     * 过期时间随机浮动的比例，0表示不浮动
+     */
+    double jitter() default 0.1;
+}
@@ -0,0 +1,53 @@
+package com.hmdp.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 读缓存：先查缓存，未命中时执行方法并把返回值写入缓存
+ * 缓存的类型就是方法的返回值类型，支持泛型，例如 List&lt;Voucher&gt;
+ * 返回的对象可能是本地缓存中共享的对象，调用方不要修改它
+ * <pre>
+ * &#64;ReadThroughCache(prefix = CACHE_BLOG_KEY, key = "#id", strategy = CacheStrategy.MUTEX)
+ * public Blog queryBlog(Long id)
+ * </pre>
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface ReadThroughCache {
+
+    /**
+     * key前缀，例如 cache:blog:
+     */
+    String prefix();
+
+    /**
+     * key表达式(SpEL)，可以使用参数名、#p0、#a0，例如 #id、#user.id
+     */
+    String key();
+
+    /**
+     * 使用的缓存策略
+     */
+    CacheStrategy strategy() default CacheStrategy.PASS_THROUGH;
+
+    /**
+     * 过期时间
+     */
+    long ttl() default 30;
+
+    /**
+     * 过期时间的单位
+     */
+    TimeUnit unit() default TimeUnit.MINUTES;
+
+    /**
+     * 过期时间随机浮动的比例，0表示不浮动
+     */
+    double jitter() default 0.1;
+}
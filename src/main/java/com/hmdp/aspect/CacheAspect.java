@@ -0,0 +1,126 @@
+package com.hmdp.aspect;
+
+import com.hmdp.annotation.EvictCache;
+import com.hmdp.annotation.PutCache;
+import com.hmdp.annotation.ReadThroughCache;
+import com.hmdp.annotation.CacheStrategy;
+import com.hmdp.utils.CacheClient;
+import lombok.extern.slf4j.Slf4j;
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.AfterReturning;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.context.expression.MethodBasedEvaluationContext;
+import org.springframework.core.DefaultParameterNameDiscoverer;
+import org.springframework.core.Ordered;
+import org.springframework.core.ParameterNameDiscoverer;
+import org.springframework.core.annotation.Order;
+import org.springframework.expression.Expression;
+import org.springframework.expression.ExpressionParser;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * 缓存注解的切面，按注解选择 CacheClient 的策略
+ * key表达式解析后缓存，方法的参数名从class文件中读取
+ * 注意：同一个类内部调用不会经过代理，需要通过 AopContext.currentProxy() 调用
+ * 切面在事务外层，写缓存和删除缓存发生在事务提交之后
+ */
+@Slf4j
+@Aspect
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE - 1)
+public class CacheAspect {
+
+    private final CacheClient cacheClient;
+
+    private final ExpressionParser parser = new SpelExpressionParser();
+
+    private final ParameterNameDiscoverer nameDiscoverer = new DefaultParameterNameDiscoverer();
+
+    private final Map<String, Expression> expressions = new ConcurrentHashMap<>();
+
+    public CacheAspect(CacheClient cacheClient) {
+        this.cacheClient = cacheClient;
+    }
+
+    @Around("@annotation(cache)")
+    public Object readThrough(ProceedingJoinPoint joinPoint, ReadThroughCache cache) {
+        Method method = methodOf(joinPoint);
+        Object id = evaluate(cache.key(), method, joinPoint.getArgs(), null);
+        Type type = method.getGenericReturnType();
+        long seconds = CacheClient.jitterSeconds(cache.unit().toSeconds(cache.ttl()), cache.jitter());
+        Function<Object, Object> dbFallback = ignored -> proceed(joinPoint);
+        switch (cache.strategy()) {
+            case MUTEX:
+                return cacheClient.queryWithMutex(cache.prefix(), id, type, dbFallback, seconds, TimeUnit.SECONDS);
+            case LOGICAL_EXPIRE:
+                return cacheClient.queryWithLogicalExpire(cache.prefix(), id, type, dbFallback, seconds, TimeUnit.SECONDS);
+            case PROBABILISTIC:
+                return cacheClient.queryWithProbabilisticExpire(cache.prefix(), id, type, dbFallback, seconds, TimeUnit.SECONDS);
+            default:
+                return cacheClient.queryWithPassThrough(cache.prefix(), id, type, dbFallback, seconds, TimeUnit.SECONDS);
+        }
+    }
+
+    @AfterReturning(pointcut = "@annotation(cache)", returning = "result")
+    public void put(JoinPoint joinPoint, PutCache cache, Object result) {
+        Method method = methodOf(joinPoint);
+        String key = cache.prefix() + evaluate(cache.key(), method, joinPoint.getArgs(), result);
+        if (result == null) {
+            cacheClient.delete(key);
+            return;
+        }
+        long seconds = CacheClient.jitterSeconds(cache.unit().toSeconds(cache.ttl()), cache.jitter());
+        if (cache.strategy() == CacheStrategy.LOGICAL_EXPIRE || cache.strategy() == CacheStrategy.PROBABILISTIC) {
+            cacheClient.setWithLogicalExpire(key, result, seconds, TimeUnit.SECONDS);
+        } else {
+            cacheClient.set(key, result, seconds, TimeUnit.SECONDS);
+        }
+    }
+
+    @AfterReturning(pointcut = "@annotation(cache)", returning = "result")
+    public void evict(JoinPoint joinPoint, EvictCache cache, Object result) {
+        Method method = methodOf(joinPoint);
+        cacheClient.delete(cache.prefix() + evaluate(cache.key(), method, joinPoint.getArgs(), result));
+    }
+
+    /**
+     * 代理类的方法可能读不到参数名，换成目标类上的方法
+     */
+    private Method methodOf(JoinPoint joinPoint) {
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        return joinPoint.getTarget() == null ? method
+                : AopUtils.getMostSpecificMethod(method, joinPoint.getTarget().getClass());
+    }
+
+    private Object evaluate(String expression, Method method, Object[] args, Object result) {
+        MethodBasedEvaluationContext context = new MethodBasedEvaluationContext(null, method, args, nameDiscoverer);
+        context.setVariable("result", result);
+        Object value = expressions.computeIfAbsent(expression, parser::parseExpression).getValue(context);
+        if (value == null) {
+            throw new IllegalArgumentException("缓存key表达式的值为null：" + expression + "，方法：" + method);
+        }
+        return value;
+    }
+
+    private Object proceed(ProceedingJoinPoint joinPoint) {
+        try {
+            return joinPoint.proceed();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 管理接口 属性值
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.admin")
+public class AdminProp {
+    /**
+     * 管理员的用户id，只有这些用户可以访问 /admin/**，为空时所有用户都不能访问
+     */
+    private List<Long> userIds = new ArrayList<>();
+    /**
+     * 拉取指标的令牌，Prometheus 配置 authorization: credentials: 令牌；为空时不校验
+     */
+    private String metricsToken;
+}
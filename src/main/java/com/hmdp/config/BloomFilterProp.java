@@ -0,0 +1,38 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 防止缓存穿透的布隆过滤器 属性值
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.bloom")
+public class BloomFilterProp {
+    /**
+     * 是否开启布隆过滤器
+     */
+    private boolean enabled = true;
+    /**
+     * 预计的id数量，实际数量更多时按实际数量的1.5倍计算
+     */
+    private long expectedInsertions = 1000000;
+    /**
+     * 误判率
+     */
+    private double fpp = 0.01;
+    /**
+     * 每次从数据库读取的id数量
+     */
+    private int chunkSize = 2000;
+    /**
+     * 重建间隔(毫秒)，重建后已删除的id会被清除
+     */
+    private long rebuildIntervalMillis = 3600000;
+    /**
+     * 新增id的广播频道
+     */
+    private String channel = "bloom:add";
+}
@@ -0,0 +1,34 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 缓存熔断器 属性值
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.cache.breaker")
+public class CacheBreakerProp {
+    /**
+     * 是否开启熔断
+     */
+    private boolean enabled = true;
+    /**
+     * 连续失败多少次后打开熔断器
+     */
+    private int failureThreshold = 5;
+    /**
+     * 熔断器打开后至少保持的时间(毫秒)，之后开始探测Redis是否恢复
+     */
+    private long openMillis = 5000;
+    /**
+     * 熔断期间同时查询数据库的最大请求数
+     */
+    private int dbConcurrency = 20;
+    /**
+     * 熔断期间等待查询数据库许可的最长时间(毫秒)，超时直接返回繁忙
+     */
+    private long dbWaitMillis = 200;
+}
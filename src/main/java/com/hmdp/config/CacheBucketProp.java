@@ -0,0 +1,25 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 缓存哈希分桶存储 属性值
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.cache.bucket")
+public class CacheBucketProp {
+    /**
+     * 使用分桶存储的key前缀，例如 cache:shop:，只对数字id生效
+     */
+    private List<String> prefixes = new ArrayList<>();
+    /**
+     * 每个桶的id个数，不要超过Redis的 hash-max-listpack-entries(旧版本为 hash-max-ziplist-entries，默认128)
+     */
+    private int bucketSize = 100;
+}
@@ -0,0 +1,37 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 缓存值编码格式 属性值，按key前缀配置
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.cache.codec")
+public class CacheCodecProp {
+    /**
+     * 没有单独配置的前缀使用的编码：json / binary
+     */
+    private String defaultCodec = "json";
+    /**
+     * 每个key前缀使用的编码
+     */
+    private List<Spec> specs = new ArrayList<>();
+
+    @Data
+    public static class Spec {
+        /**
+         * key前缀，例如 cache:shop:
+         */
+        private String prefix;
+        /**
+         * 编码：json / binary
+         */
+        private String codec;
+    }
+}
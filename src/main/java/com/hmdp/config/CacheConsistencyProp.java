@@ -0,0 +1,40 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 缓存和数据库一致性校验 属性值
+ * 每一轮每个前缀的数据库开销是 ceil(sampleSize / batchSize) 次按主键的IN查询，
+ * 通过 sampleSize 和 intervalMillis 把校验的开销控制在数据库容量的1%以内
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.cache.consistency")
+public class CacheConsistencyProp {
+    /**
+     * 是否开启定时校验
+     */
+    private boolean enabled = true;
+    /**
+     * 两轮校验的间隔(毫秒)
+     */
+    private long intervalMillis = 60000;
+    /**
+     * 每一轮每个前缀抽样的key数量，可以通过管理接口在运行时调整
+     */
+    private int sampleSize = 100;
+    /**
+     * 一次IN查询的id个数
+     */
+    private int batchSize = 100;
+    /**
+     * SCAN每次遍历的key数量
+     */
+    private int scanCount = 1000;
+    /**
+     * 发现不一致时是否自动删除缓存
+     */
+    private boolean autoEvict = true;
+}
@@ -0,0 +1,34 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 本地缓存失效广播 属性值
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.cache.invalidation")
+public class CacheInvalidationProp {
+    /**
+     * 发布订阅的频道
+     */
+    private String channel = "cache:invalidate";
+    /**
+     * 攒批的时间间隔(毫秒)，同一批内重复的key会合并
+     */
+    private long batchMillis = 20;
+    /**
+     * 一条消息最多携带的key数量
+     */
+    private int maxBatchSize = 500;
+    /**
+     * 心跳间隔(毫秒)，没有失效消息时也要发送，用于判断订阅是否正常
+     */
+    private long heartbeatMillis = 1000;
+    /**
+     * 超过这个时间(毫秒)没有收到任何消息，认为可能漏掉了消息，清空本地缓存
+     */
+    private long missedWindowMillis = 3000;
+}
@@ -0,0 +1,42 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 缓存重建线程池 属性值
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.cache.rebuild")
+public class CacheRebuildProp {
+    /**
+     * 重建线程数
+     */
+    private int threads = 10;
+    /**
+     * 等待队列的长度，队列满了拒绝新的重建任务，调用方继续返回旧值
+     */
+    private int queueCapacity = 1000;
+    /**
+     * 单个重建任务的超时时间(毫秒)，超时后中断任务
+     */
+    private long timeoutMillis = 3000;
+    /**
+     * 关闭时等待正在执行的任务完成的时间(毫秒)
+     */
+    private long shutdownWaitMillis = 5000;
+    /**
+     * 同步重建时等待其它节点释放互斥锁的最长时间(毫秒)，超时后直接查询数据库
+     */
+    private long mutexWaitMillis = 2000;
+
+    /**
+     * 本节点合并的请求等待重建结果的最长时间(毫秒)
+     * 重建的线程最多等待互斥锁 mutexWaitMillis，再查询数据库(按 timeoutMillis 估计)，等待时间不能比它短
+     */
+    public long singleFlightWaitMillis() {
+        return mutexWaitMillis + timeoutMillis;
+    }
+}
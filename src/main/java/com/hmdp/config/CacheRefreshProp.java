@@ -0,0 +1,31 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 缓存提前刷新(refresh-ahead) 属性值
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.cache.refresh-ahead")
+public class CacheRefreshProp {
+    /**
+     * 是否开启提前刷新
+     */
+    private boolean enabled = true;
+    /**
+     * 剩余TTL低于总TTL的这个比例时触发异步刷新
+     * 比例乘以TTL应该大于本地缓存的过期时间，否则热点key一直命中本地缓存，发现不了快过期了
+     */
+    private double fraction = 0.2;
+    /**
+     * 刷新线程数
+     */
+    private int threads = 2;
+    /**
+     * 刷新任务队列的长度，队列满了直接放弃本次刷新，等下次读取再触发
+     */
+    private int queueCapacity = 200;
+}
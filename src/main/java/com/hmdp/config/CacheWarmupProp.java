@@ -0,0 +1,38 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 缓存预热 属性值
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.cache.warmup")
+public class CacheWarmupProp {
+    /**
+     * 启动完成后是否自动预热，默认关闭，需要时通过管理接口触发
+     */
+    private boolean onStartup = false;
+    /**
+     * 启动预热的互斥时间(秒)：这段时间内只有第一个启动的实例执行，滚动发布时不会每个实例都预热一次
+     */
+    private long startupLockSeconds = 600;
+    /**
+     * 每批从数据库读取的行数，同时也是一次pipeline写入的数量
+     */
+    private int chunkSize = 500;
+    /**
+     * 同时写入Redis的批次数，限制预热占用的连接，避免影响线上请求
+     */
+    private int parallelism = 2;
+    /**
+     * 每批之间暂停的时间(毫秒)，0表示不暂停
+     */
+    private long pauseMillis = 0;
+    /**
+     * TTL随机浮动的比例，例如0.1表示在TTL的±10%之间随机，避免同时过期
+     */
+    private double ttlJitter = 0.1;
+}
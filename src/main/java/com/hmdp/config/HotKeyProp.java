@@ -0,0 +1,42 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 热点key检测 属性值
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.cache.hot-key")
+public class HotKeyProp {
+    /**
+     * 是否开启热点key检测
+     */
+    private boolean enabled = true;
+    /**
+     * 采样率，每N次访问记录一次(计数时乘以N)，1表示每次都记录
+     */
+    private int sampleRate = 4;
+    /**
+     * 统计窗口(毫秒)，每个窗口结束时所有计数减半，旧的访问逐渐衰减
+     */
+    private long windowMillis = 10000;
+    /**
+     * 一个窗口内估计访问次数达到这个值认为是热点key
+     */
+    private long threshold = 1000;
+    /**
+     * 每个key前缀最多保留的热点key数量
+     */
+    private int topK = 20;
+    /**
+     * count-min sketch 的宽度，越大误差越小
+     */
+    private int sketchWidth = 4096;
+    /**
+     * count-min sketch 的行数(哈希函数个数)
+     */
+    private int sketchDepth = 4;
+}
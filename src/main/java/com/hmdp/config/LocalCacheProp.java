@@ -0,0 +1,57 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 本地缓存(L1) 属性值，按key前缀分别配置
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.cache.local")
+public class LocalCacheProp {
+    /**
+     * 是否开启本地缓存
+     */
+    private boolean enabled = true;
+    /**
+     * 每个key前缀对应的本地缓存配置
+     */
+    private List<Spec> specs = new ArrayList<>();
+    /**
+     * 兜底旧值(最后一次读到的值)最多保存的条数，所有前缀共用
+     */
+    private long lastKnownSize = 10000;
+    /**
+     * 兜底旧值保存的时间(秒)
+     */
+    private long lastKnownExpireSeconds = 600;
+    /**
+     * 热点key的本地副本最多保存的条数，所有前缀共用，不受specs限制
+     */
+    private long hotSize = 1000;
+    /**
+     * 热点key本地副本的过期时间(秒)，很短，只用来挡住对同一个Redis分片的集中访问
+     */
+    private long hotExpireSeconds = 5;
+
+    @Data
+    public static class Spec {
+        /**
+         * key前缀，例如 cache:shop:
+         */
+        private String prefix;
+        /**
+         * 最多缓存的条数
+         */
+        private long maximumSize = 10000;
+        /**
+         * 写入后的过期时间(秒)
+         */
+        private long expireSeconds = 60;
+    }
+}
@@ -0,0 +1,45 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 本地缓存(L1)快照 属性值
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.cache.snapshot")
+public class LocalCacheSnapshotProp {
+    /**
+     * 是否在停机时保存快照、启动时加载
+     */
+    private boolean enabled = false;
+    /**
+     * 快照文件的路径，同一台机器上的多个实例要配置不同的路径
+     */
+    private String path = "data/l1-snapshot.bin";
+    /**
+     * 需要保存的key前缀，前缀必须开启了本地缓存
+     */
+    private List<Spec> specs = new ArrayList<>();
+
+    @Data
+    public static class Spec {
+        /**
+         * key前缀，例如 cache:shop:
+         */
+        private String prefix;
+        /**
+         * 最多保存的条数，按访问热度从高到低
+         */
+        private int maxEntries = 5000;
+        /**
+         * 数据的有效期(秒)，和Redis中的TTL一致，写入本地缓存超过这个时间的条目加载时丢弃
+         */
+        private long ttlSeconds = 1800;
+    }
+}
@@ -1,6 +1,8 @@
 package com.hmdp.config;
 
+import com.hmdp.utils.AdminInterceptor;
 import com.hmdp.utils.LoginInterceptor;
+import com.hmdp.utils.RedisTrackingCache;
 import com.hmdp.utils.RefreshTokenInterceptor;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.core.StringRedisTemplate;
@@ -21,6 +23,12 @@ public class MvcConfig implements WebMvcConfigurer {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private RedisTrackingCache redisTrackingCache;
+
+    @Resource
+    private AdminProp adminProp;
+
     /**
      * 添加拦截器
      * Add Spring MVC lifecycle interceptors for pre- and post-processing of
@@ -42,13 +50,19 @@ public class MvcConfig implements WebMvcConfigurer {
                 "/upload/**",
                 "/blog/hot",
                 "/user/code",
-                "/user/login"
+                "/user/login",
+                "/metrics/**"
                 )
                 .order(1);
 
+        //管理接口只有管理员可以访问
+        registry.addInterceptor(new AdminInterceptor(adminProp))
+                .addPathPatterns("/admin/**")
+                .order(2);
+
         //添加全局所有拦截器
         registry
-                .addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate))
+                .addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate, redisTrackingCache))
                 .addPathPatterns("/**")
                 .order(0); //顺序 0 先执行
 
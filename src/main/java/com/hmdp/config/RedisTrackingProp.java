@@ -0,0 +1,26 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Redis客户端缓存(RESP3 CLIENT TRACKING) 属性值
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.cache.tracking")
+public class RedisTrackingProp {
+    /**
+     * 是否开启，需要Redis 6.0以上
+     */
+    private boolean enabled = false;
+    /**
+     * 本地最多缓存的key数量
+     */
+    private long maximumSize = 100000;
+    /**
+     * 连接断开或者开启失败后重试的间隔(毫秒)，期间使用普通读取
+     */
+    private long reconnectIntervalMillis = 5000;
+}
@@ -0,0 +1,87 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 秒杀 属性值
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.seckill")
+public class SeckillProp {
+    /**
+     * 售罄标记的广播频道
+     */
+    private String soldOutChannel = "seckill:sold-out";
+    /**
+     * 本地售罄标记的有效期(毫秒)，过期后下一个请求重新执行一次脚本确认，
+     * 漏掉补货广播的节点最多在这段时间内误判售罄
+     */
+    private long soldOutTtlMillis = 10000;
+    /**
+     * 是否批量消费订单消息
+     */
+    private boolean batchEnabled = true;
+    /**
+     * 批量模式下每次读取的消息数量
+     */
+    private int batchSize = 200;
+    /**
+     * 读取消息队列的阻塞时间(毫秒)
+     */
+    private long blockMillis = 2000;
+    /**
+     * pendingList中的消息连续处理失败的轮数，超过后回到主循环稍后重试
+     */
+    private int pendingRetries = 3;
+    /**
+     * 订单消息的消费者组
+     */
+    private String orderGroup = "g1";
+    /**
+     * 实例id，消费者名称为 实例id-线程序号；为空时使用 进程id@主机名
+     */
+    private String instanceId;
+    /**
+     * 每个实例的消费线程数
+     */
+    private int workers = 2;
+    /**
+     * 认领空闲消息的间隔(毫秒)
+     */
+    private long claimIntervalMillis = 10000;
+    /**
+     * 消息空闲超过这个时间(毫秒)才会被认领，要大于处理一批消息的耗时
+     */
+    private long claimIdleMillis = 30000;
+    /**
+     * 投递次数达到这个值的消息转入死信队列
+     */
+    private int maxDeliveries = 10;
+    /**
+     * 死信队列
+     */
+    private String deadLetterQueue = "stream.orders.dead";
+    /**
+     * 没有待处理消息的消费者空闲超过这个时间(毫秒)后删除
+     */
+    private long consumerExpireMillis = 3600000;
+    /**
+     * 订单消息队列的分区数，按 hash(优惠券id) 分区
+     */
+    private int partitions = 1;
+    /**
+     * 实例心跳和重新分配分区的间隔(毫秒)
+     */
+    private long rebalanceIntervalMillis = 5000;
+    /**
+     * 实例心跳超时(毫秒)，超时后它的分区分配给其它实例
+     */
+    private long memberExpireMillis = 20000;
+    /**
+     * 启动时把旧布局的秒杀key(没有哈希标签)迁移到新的布局
+     */
+    private boolean migrateLegacyKeys = true;
+}
@@ -0,0 +1,101 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.utils.CacheConsistencyVerifier;
+import com.hmdp.utils.CacheWarmer;
+import com.hmdp.utils.HotKeyDetector;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * <p>
+ * 缓存管理接口，只有管理员(hmdp.admin.user-ids)可以访问；指标在 /metrics/cache
+ * </p>
+ */
+@RestController
+@RequestMapping("/admin/cache")
+public class CacheAdminController {
+
+    @Resource
+    private CacheWarmer cacheWarmer;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    @Resource
+    private CacheConsistencyVerifier consistencyVerifier;
+
+    /**
+     * 触发缓存预热，在后台执行
+     *
+     * @return 预热进度
+     */
+    @PostMapping("/warmup")
+    public Result warmUp() {
+        if (!cacheWarmer.start()) {
+            return Result.fail("缓存预热正在执行！");
+        }
+        return Result.ok(cacheWarmer.getProgress());
+    }
+
+    /**
+     * 查询缓存预热的进度
+     *
+     * @return 预热进度
+     */
+    @GetMapping("/warmup")
+    public Result warmUpProgress() {
+        return Result.ok(cacheWarmer.getProgress());
+    }
+
+    /**
+     * 当前的热点key，按key前缀分组
+     *
+     * @return 前缀 -> 热点key列表(次数从高到低)
+     */
+    @GetMapping("/hot-keys")
+    public Result hotKeys() {
+        return Result.ok(hotKeyDetector.report());
+    }
+
+    /**
+     * 缓存和数据库一致性校验的结果，按key前缀
+     *
+     * @return 每个前缀的比较条数、不一致条数和不一致率
+     */
+    @GetMapping("/consistency")
+    public Result consistency() {
+        return Result.ok(consistencyVerifier.report());
+    }
+
+    /**
+     * 立即执行一轮一致性校验
+     *
+     * @return 校验结果
+     */
+    @PostMapping("/consistency")
+    public Result verifyConsistency() {
+        if (!consistencyVerifier.verify()) {
+            return Result.fail("一致性校验正在执行或者Redis不可用！");
+        }
+        return Result.ok(consistencyVerifier.report());
+    }
+
+    /**
+     * 调整一致性校验每一轮每个前缀的抽样数量
+     *
+     * @param size 抽样数量，0表示暂停抽样
+     * @return 调整后的抽样数量
+     */
+    @PostMapping("/consistency/sample-size")
+    public Result sampleSize(@RequestParam("size") Integer size) {
+        consistencyVerifier.setSampleSize(size);
+        return Result.ok(consistencyVerifier.getSampleSize());
+    }
+}
@@ -0,0 +1,51 @@
+package com.hmdp.controller;
+
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.config.AdminProp;
+import com.hmdp.utils.CacheMetrics;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * <p>
+ * 指标接口，给Prometheus拉取，不需要登录；配置了 hmdp.admin.metrics-token 时校验 Authorization: Bearer 令牌
+ * </p>
+ */
+@RestController
+@RequestMapping("/metrics")
+public class MetricsController {
+
+    private static final String BEARER = "Bearer ";
+
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    @Resource
+    private AdminProp adminProp;
+
+    /**
+     * 缓存指标，Prometheus文本格式
+     *
+     * @param authorization 请求头 Authorization
+     * @return 指标文本
+     */
+    @GetMapping(value = "/cache", produces = "text/plain; version=0.0.4; charset=utf-8")
+    public ResponseEntity<String> cache(@RequestHeader(value = "Authorization", required = false) String authorization) {
+        String token = adminProp.getMetricsToken();
+        if (StrUtil.isNotBlank(token)
+                && (authorization == null || !MessageDigest.isEqual(
+                authorization.getBytes(StandardCharsets.UTF_8), (BEARER + token).getBytes(StandardCharsets.UTF_8)))) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        return ResponseEntity.ok(cacheMetrics.scrape());
+    }
+}
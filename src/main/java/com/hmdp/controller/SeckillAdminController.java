@@ -0,0 +1,39 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.service.IVoucherService;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * <p>
+ * 秒杀管理接口，只有管理员(hmdp.admin.user-ids)可以访问
+ * </p>
+ */
+@RestController
+@RequestMapping("/admin/seckill")
+public class SeckillAdminController {
+
+    @Resource
+    private IVoucherService voucherService;
+
+    /**
+     * 补充秒杀券的库存
+     * @param voucherId 优惠券id
+     * @param amount 补充的数量
+     * @return 无
+     */
+    @PostMapping("/{id}/restock")
+    public Result restockSeckillVoucher(@PathVariable("id") Long voucherId, @RequestParam("amount") Integer amount) {
+        if (!voucherService.restockSeckillVoucher(voucherId, amount)) {
+            return Result.fail("优惠券不存在或者数量不正确！");
+        }
+        return Result.ok();
+    }
+}
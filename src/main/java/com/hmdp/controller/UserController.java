@@ -5,7 +5,6 @@ import cn.hutool.core.bean.BeanUtil;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
-import com.hmdp.entity.User;
 import com.hmdp.entity.UserInfo;
 import com.hmdp.service.IUserInfoService;
 import com.hmdp.service.IUserService;
@@ -75,11 +74,13 @@ public class UserController {
     @GetMapping("/info/{id}")
     public Result info(@PathVariable("id") Long userId){
         // 查询详情
-        UserInfo info = userInfoService.getById(userId);
+        UserInfo info = userInfoService.queryInfoById(userId);
         if (info == null) {
             // 没有详情，应该是第一次查看详情
             return Result.ok();
         }
+        // 缓存中的对象是共享的，复制一份再修改
+        info = BeanUtil.copyProperties(info, UserInfo.class);
         info.setCreateTime(null);
         info.setUpdateTime(null);
         // 返回
@@ -94,11 +95,10 @@ public class UserController {
     @GetMapping("/{id}")
     public Result queryUserById(@PathVariable("id") Long userId){
         // 查询详情
-        User user = userService.getById(userId);
-        if (user == null) {
+        UserDTO userDTO = userService.queryUserDTOById(userId);
+        if (userDTO == null) {
             return Result.ok();
         }
-        UserDTO userDTO = BeanUtil.copyProperties(user, UserDTO.class);
         // 返回
         return Result.ok(userDTO);
     }
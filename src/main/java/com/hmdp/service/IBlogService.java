@@ -21,6 +21,13 @@ public interface IBlogService extends IService<Blog> {
      */
     Result queryBlogById(Long id);
 
+    /**
+     * 根据id查询笔记(先查缓存)，不包含用户和点赞信息
+     * @param id
+     * @return
+     */
+    Blog queryBlog(Long id);
+
 
     /**
      * 获取热门blog
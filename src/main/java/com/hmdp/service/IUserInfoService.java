@@ -13,4 +13,10 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IUserInfoService extends IService<UserInfo> {
 
+    /**
+     * 根据用户id查询详情(先查缓存)
+     * @param userId
+     * @return
+     */
+    UserInfo queryInfoById(Long userId);
 }
@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -29,4 +31,11 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
      * @return
      */
     void createVoucherOrder(VoucherOrder voucherOrder);
+
+    /**
+     * 批量创建订单，一个事务中按优惠券聚合扣减库存并批量写入订单
+     *
+     * @param voucherOrders
+     */
+    void createVoucherOrders(List<VoucherOrder> voucherOrders);
 }
@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -16,5 +18,26 @@ public interface IVoucherService extends IService<Voucher> {
 
     Result queryVoucherOfShop(Long shopId);
 
+    /**
+     * 查询店铺的优惠券列表(先查缓存)
+     * @param shopId
+     * @return
+     */
+    List<Voucher> queryVouchersOfShop(Long shopId);
+
+    /**
+     * 新增普通券
+     * @param voucher
+     */
+    void addVoucher(Voucher voucher);
+
     void addSeckillVoucher(Voucher voucher);
+
+    /**
+     * 补充秒杀券的库存
+     * @param voucherId 优惠券id
+     * @param amount 补充的数量
+     * @return 是否成功，优惠券不存在时返回false
+     */
+    boolean restockSeckillVoucher(Long voucherId, Integer amount);
 }
@@ -5,19 +5,23 @@ import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.annotation.CacheStrategy;
+import com.hmdp.annotation.ReadThroughCache;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.ScrollResult;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
 import com.hmdp.entity.Follow;
-import com.hmdp.entity.User;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.service.IFollowService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.IdBloomFilter;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
+import org.springframework.aop.framework.AopContext;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.stereotype.Service;
@@ -27,9 +31,14 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.BLOG_LIKED_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_BLOG_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_BLOG_TTL;
+import static com.hmdp.utils.RedisConstants.CACHE_USER_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_USER_TTL;
 import static com.hmdp.utils.RedisConstants.FEED_KEY;
 
 /**
@@ -53,6 +62,12 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private IdBloomFilter idBloomFilter;
+
+    @Resource
+    private CacheClient cacheClient;
+
 
     /**
      * 保存笔记
@@ -70,6 +85,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         if (!isSuccess) {
             return Result.fail("新增笔记失败！");
         }
+        // 加入布隆过滤器
+        idBloomFilter.add(CACHE_BLOG_KEY, blog.getId());
         // 3、找到作者的所有粉丝
         QueryWrapper<Follow> queryWrapper = new QueryWrapper<>();
         queryWrapper.lambda().eq(Follow::getFollowUserId, user.getId());
@@ -93,21 +110,55 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
      */
     @Override
     public Result queryBlogById(Long id) {
-        // 1. 查blog
-        Blog blog = this.getById(id);
+        // 0. 布隆过滤器判断id一定不存在，不再查数据库
+        if (!idBloomFilter.mightContain(CACHE_BLOG_KEY, id)) {
+            return Result.fail("笔记不存在！");
+        }
+        // 1. 查blog(先查缓存)，缓存中的对象是共享的，复制一份再填充用户和点赞信息
+        IBlogService proxy = (IBlogService) AopContext.currentProxy();
+        Blog blog = proxy.queryBlog(id);
         if (blog == null) {
             return Result.fail("笔记不存在！");
         }
+        blog = BeanUtil.copyProperties(blog, Blog.class);
         // 2.查询blog有关的用户
         queryBlogUser(blog);
 
-        // 3. 查询blog是否被点赞
+        // 3. 查询blog是否被点赞，点赞数不在缓存中，从点赞的zset读取
 
         isBlogLiked(blog);
+        queryBlogLikedCount(blog);
 
         return Result.ok(blog);
     }
 
+    /**
+     * 根据id查询笔记(先查缓存)，和关注推送的批量查询共用 cache:blog: 缓存
+     * 点赞数变化很频繁，不放进缓存(否则每次点赞都要删除热门笔记的缓存)，由调用方从点赞的zset读取
+     *
+     * @param id
+     * @return
+     */
+    @Override
+    @ReadThroughCache(prefix = CACHE_BLOG_KEY, key = "#id", strategy = CacheStrategy.MUTEX)
+    public Blog queryBlog(Long id) {
+        Blog blog = this.getById(id);
+        if (blog != null) {
+            blog.setLiked(null);
+        }
+        return blog;
+    }
+
+    /**
+     * 查询blog的点赞数：点赞的zset中的用户数
+     *
+     * @param blog
+     */
+    private void queryBlogLikedCount(Blog blog) {
+        Long count = stringRedisTemplate.opsForZSet().zCard(BLOG_LIKED_KEY + blog.getId());
+        blog.setLiked(count == null ? 0 : count.intValue());
+    }
+
     /**
      * 判断blog是否被点赞
      *
@@ -153,7 +204,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
      */
     private void queryBlogUser(Blog blog) {
         Long userId = blog.getUserId();
-        User user = userService.getById(userId);
+        UserDTO user = userService.queryUserDTOById(userId);
         blog.setName(user.getNickName());
         blog.setIcon(user.getIcon());
     }
@@ -177,7 +228,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             boolean isSuccess = this.update().setSql("liked = liked + 1").eq("id", id).update();
             // 3.2 保存用户到redis的set集合
             if (isSuccess) {
-                // zadd key value score
+                // zadd key value score，缓存中没有点赞数，不需要删除笔记缓存
                 stringRedisTemplate.opsForZSet().add(BLOG_LIKED_KEY + id, userId.toString(), System.currentTimeMillis());
             }
         } else {
@@ -207,14 +258,12 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         }
         // 2. 解析其中的用户id查询用户
         List<Long> ids = top5.stream().map(Long::valueOf).collect(Collectors.toList());
-        String idStr = StrUtil.join(",", ids);
-        // 3. 根据用户id查询用户  ORDER BY FIELD 指定查询顺序
-        List<UserDTO> userDTOS = userService.query()
-                .in("id", ids)
-                .last("ORDER BY FIELD(id," + idStr + ")").list()
-                .stream()
-                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
-                .collect(Collectors.toList());
+        // 3. 根据用户id批量查询用户(先查缓存)，顺序和ids一致
+        List<UserDTO> userDTOS = cacheClient.queryBatch(CACHE_USER_KEY, ids, UserDTO.class, UserDTO::getId,
+                userIds -> userService.listByIds(userIds).stream()
+                        .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
+                        .collect(Collectors.toList()),
+                CACHE_USER_TTL, TimeUnit.MINUTES);
         // 4. 返回
         return Result.ok(userDTOS);
     }
@@ -270,15 +319,22 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
                 os = 1;
             }
         }
-        //4. 根据id查询blog
-        String idStr = StrUtil.join(",", ids);
-        List<Blog> blogs = this.query()
-                .in("id", ids)
-                .last("ORDER BY FIELD(id," + idStr + ")").list();
+        //4. 根据id批量查询blog(先查缓存)，顺序和ids一致
+        //   缓存中的对象是共享的，复制一份再填充用户和点赞信息；和 queryBlog 一样不缓存点赞数
+        List<Blog> blogs = cacheClient.queryBatch(CACHE_BLOG_KEY, ids, Blog.class, Blog::getId,
+                        blogIds -> {
+                            List<Blog> list = this.listByIds(blogIds);
+                            list.forEach(blog -> blog.setLiked(null));
+                            return list;
+                        }, CACHE_BLOG_TTL, TimeUnit.MINUTES)
+                .stream()
+                .map(blog -> BeanUtil.copyProperties(blog, Blog.class))
+                .collect(Collectors.toList());
 
         blogs.forEach(blog -> {
             this.queryBlogUser(blog);
             this.isBlogLiked(blog);
+            this.queryBlogLikedCount(blog);
         });
         // 5. 封装并返回
         ScrollResult scrollResult = new ScrollResult();
@@ -1,5 +1,6 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
@@ -12,7 +13,6 @@ import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.CacheClient;
-import com.hmdp.utils.RedisData;
 import com.hmdp.utils.SystemConstants;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.geo.Distance;
@@ -26,7 +26,6 @@ import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
 
-import java.time.LocalDateTime;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -134,13 +133,13 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
-        //2.封装逻辑过期时间
-        RedisData redisData = new RedisData();
-        redisData.setData(shop);
-        //plusSeconds() 在此基础上添加的时间
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(expireSeconds));
+        //2.封装逻辑过期时间：'E' + 过期时间(epoch毫秒) + '|' + 数据
+        String key = CACHE_SHOP_KEY + id;
+        long expireMillis = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(expireSeconds);
         //3.写入Redis
-        redisTemplate.opsForValue().set(CACHE_SHOP_KEY + id, JSONUtil.toJsonStr(redisData));
+        redisTemplate.opsForValue().set(key, cacheClient.encodeWithLogicalExpire(key, shop, expireMillis));
+        //4.其它节点的本地缓存还是旧数据，通知它们重新读取
+        cacheClient.invalidate(key);
 
     }
 
@@ -162,8 +161,8 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         //1.更新数据库
         updateById(shop);
 
-        //2.删除缓存
-        redisTemplate.delete(CACHE_SHOP_KEY + shop.getId());
+        //2.删除缓存(Redis和本地缓存)
+        cacheClient.delete(CACHE_SHOP_KEY + shop.getId());
 
         return Result.ok();
     }
@@ -223,15 +222,16 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             Distance distance = result.getDistance();
             distanceMap.put(shopIdStr, distance);
         });
-        String idStr = StrUtil.join(",", ids);
-        //5. 根据id查询shop
-        List<Shop> shops = query()
-                .in("id", ids)
-                .last("ORDER BY FIELD(id," + idStr + ")").list();
-        for (Shop shop : shops) {
-            // 不出距离信息
+        //5. 根据id批量查询shop(先查缓存，未命中的一次查询数据库)，顺序和ids一致
+        List<Shop> cached = cacheClient.queryBatch(CACHE_SHOP_KEY, ids, Shop.class, Shop::getId,
+                this::listByIds, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        List<Shop> shops = new ArrayList<>(cached.size());
+        for (Shop shop : cached) {
+            // 缓存中的对象是共享的，复制一份再填充距离信息
+            Shop copy = BeanUtil.copyProperties(shop, Shop.class);
             Distance distance = distanceMap.get(shop.getId().toString());
-            shop.setDistance(distance.getValue());
+            copy.setDistance(distance.getValue());
+            shops.add(copy);
         }
         // 6. 返回数据
         return Result.ok(shops);
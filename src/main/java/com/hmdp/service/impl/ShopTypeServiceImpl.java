@@ -1,15 +1,12 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONUtil;
+import cn.hutool.core.lang.TypeReference;
 import com.hmdp.dto.Result;
-import com.hmdp.entity.Shop;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import com.hmdp.utils.CacheClient;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
@@ -31,44 +28,26 @@ import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_TTL;
 @Service
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
 
-    @Autowired
-    private StringRedisTemplate redisTemplate;
+    private static final TypeReference<List<ShopType>> SHOP_TYPE_LIST = new TypeReference<List<ShopType>>() {
+    };
 
     @Resource
-    private IShopTypeService typeService;
+    private CacheClient cacheClient;
 
 
     /**
      * 返回店铺类型
+     * 店铺类型只有一个列表，key就是前缀，id为空字符串；互斥锁重建，和单个实体一样有空值缓存和熔断降级
      *
      * @return 店铺类型
      */
     @Override
     public Result queryTypeList() {
-
-        String key = CACHE_SHOP_TYPE_KEY;
-
-        //1.从redis中查询商铺类型缓存
-        String shopTypeJson = redisTemplate.opsForValue().get(key);
-
-       //2.判断是否存在
-        if (StrUtil.isNotBlank((shopTypeJson))) {
-            //3.存在，直接返回
-            List<ShopType> shopTypes = JSONUtil.toList(shopTypeJson, ShopType.class);
-            return Result.ok(shopTypes);
-        }
-
-       //4.不存在，查询数据库
-        List<ShopType> typeList = typeService
-                .query().orderByAsc("sort").list();
-
-       //5.不存在，返回错误
+        List<ShopType> typeList = cacheClient.queryWithMutex(CACHE_SHOP_TYPE_KEY, "", SHOP_TYPE_LIST,
+                id -> query().orderByAsc("sort").list(), CACHE_SHOP_TYPE_TTL, TimeUnit.MINUTES);
         if (typeList == null) {
-            return Result.fail("店铺不存在！");
+            return Result.fail("店铺类型不存在！");
         }
-       //6.存在，写入redis
-        redisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(typeList),CACHE_SHOP_TYPE_TTL, TimeUnit.MINUTES);
-        //7.返回
         return Result.ok(typeList);
     }
 }
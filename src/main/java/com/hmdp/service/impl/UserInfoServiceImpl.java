@@ -1,11 +1,14 @@
 package com.hmdp.service.impl;
 
+import com.hmdp.annotation.ReadThroughCache;
 import com.hmdp.entity.UserInfo;
 import com.hmdp.mapper.UserInfoMapper;
 import com.hmdp.service.IUserInfoService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import org.springframework.stereotype.Service;
 
+import static com.hmdp.utils.RedisConstants.CACHE_USER_INFO_KEY;
+
 /**
  * <p>
  *  服务实现类
@@ -17,4 +20,9 @@ import org.springframework.stereotype.Service;
 @Service
 public class UserInfoServiceImpl extends ServiceImpl<UserInfoMapper, UserInfo> implements IUserInfoService {
 
+    @Override
+    @ReadThroughCache(prefix = CACHE_USER_INFO_KEY, key = "#userId")
+    public UserInfo queryInfoById(Long userId) {
+        return getById(userId);
+    }
 }
@@ -5,6 +5,7 @@ import cn.hutool.core.bean.copier.CopyOptions;
 import cn.hutool.core.lang.UUID;
 import cn.hutool.core.util.RandomUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.annotation.ReadThroughCache;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
@@ -140,6 +141,19 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
     }
 
 
+    /**
+     * 根据id查询用户(先查缓存)，和点赞列表的批量查询共用 cache:user: 缓存
+     *
+     * @param id
+     * @return
+     */
+    @Override
+    @ReadThroughCache(prefix = CACHE_USER_KEY, key = "#id")
+    public UserDTO queryUserDTOById(Long id) {
+        User user = getById(id);
+        return user == null ? null : BeanUtil.copyProperties(user, UserDTO.class);
+    }
+
     /**
      * 用户签到
      *
@@ -1,6 +1,7 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
+import com.hmdp.config.SeckillProp;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.VoucherOrder;
@@ -9,26 +10,44 @@ import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SeckillOrderPartitions;
+import com.hmdp.utils.SeckillSoldOutFlags;
 import com.hmdp.utils.UserHolder;
+import io.lettuce.core.cluster.SlotHash;
 import lombok.extern.slf4j.Slf4j;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
-import org.springframework.aop.framework.AopContext;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -55,6 +74,15 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Resource
     private RedissonClient redissonClient;
 
+    @Resource
+    private SeckillSoldOutFlags soldOutFlags;
+
+    @Resource
+    private SeckillProp seckillProp;
+
+    @Resource
+    private SeckillOrderPartitions orderPartitions;
+
     /**
      * 加载lua脚本
      */
@@ -73,9 +101,11 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 //    private BlockingQueue<VoucherOrder> orderTask = new ArrayBlockingQueue<VoucherOrder>(1024*1024);
 
     /**
-     * 创建线程池
+     * 创建线程池，每个线程是消费者组中的一个消费者，线程数为 hmdp.seckill.workers
      */
-    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+    private ExecutorService seckillOrderExecutor;
+
+    private volatile boolean running = true;
 
 
     /**
@@ -83,8 +113,58 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
      */
     @PostConstruct
     private void init() {
-        // 提交任务
-        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
+        // 1.创建每个分区的消费者组，已经存在时忽略
+        for (String queueName : orderPartitions.allQueues()) {
+            createGroup(queueName);
+        }
+        // 2.每个实例的每个线程使用不同的消费者名称：实例id-序号，各自读取分配给自己的分区
+        String instanceId = orderPartitions.getInstanceId();
+        int workers = Math.max(1, seckillProp.getWorkers());
+        AtomicInteger threadIndex = new AtomicInteger();
+        seckillOrderExecutor = Executors.newFixedThreadPool(workers,
+                r -> new Thread(r, "seckill-order-" + threadIndex.getAndIncrement()));
+        for (int i = 0; i < workers; i++) {
+            // 提交任务
+            seckillOrderExecutor.submit(new VoucherOrderHandler(i, workers, instanceId + "-" + i));
+        }
+        log.info("订单消费者启动，消费者组 {}，{} 个消费者 {}-0..{}", seckillProp.getOrderGroup(), workers,
+                instanceId, workers - 1);
+    }
+
+    @PreDestroy
+    private void destroy() throws InterruptedException {
+        // 线程在当前的阻塞读取结束后退出，未ack的消息由其它实例认领
+        running = false;
+        seckillOrderExecutor.shutdown();
+        seckillOrderExecutor.awaitTermination(seckillProp.getBlockMillis() + 1000, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 创建消费者组 XGROUP CREATE stream.orders g1 0 MKSTREAM
+     */
+    private void createGroup(String queueName) {
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands()
+                    .xGroupCreate(queueName.getBytes(StandardCharsets.UTF_8), seckillProp.getOrderGroup(),
+                            ReadOffset.from("0"), true));
+            log.info("创建消费者组 {} {}", queueName, seckillProp.getOrderGroup());
+        } catch (Exception e) {
+            if (!causedBy(e, "BUSYGROUP")) {
+                log.warn("创建消费者组失败，稍后重试，queue={}", queueName, e);
+            }
+        }
+    }
+
+    /**
+     * 异常信息中是否包含Redis的错误码
+     */
+    private static boolean causedBy(Throwable e, String code) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause.getMessage() != null && cause.getMessage().contains(code)) {
+                return true;
+            }
+        }
+        return false;
     }
 
 
@@ -93,36 +173,99 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
      */
     private class VoucherOrderHandler implements Runnable {
 
-        private String queueName = "stream.orders";
+        /**
+         * 线程序号和线程数，用于分配分区
+         */
+        private final int worker;
+
+        private final int workers;
+
+        /**
+         * 当前线程的消费者
+         */
+        private final Consumer consumer;
+
+        /**
+         * 下一次认领空闲消息的时间
+         */
+        private long nextClaimMillis;
+
+        private VoucherOrderHandler(int worker, int workers, String consumerName) {
+            this.worker = worker;
+            this.workers = workers;
+            this.consumer = Consumer.from(seckillProp.getOrderGroup(), consumerName);
+        }
 
         @Override
         public void run() {
-            while (true) {
+            while (running) {
+                // 分配给当前线程的分区，实例加入或离开后会变化
+                List<String> queueNames = orderPartitions.queuesOf(worker, workers);
                 try {
-                    // 1.获取消息队列中的订单信息 XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS stream.orders
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"), //消费者组和消费者配置
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)), // 读取参数
-                            StreamOffset.create(queueName, ReadOffset.lastConsumed()) //消息队列和读取方式
-
-                    );
-                    // 2. 判断消息队列消息是否获取成功，
-                    if (list == null || list.isEmpty()) {
-                        // 2.1 失败 继续下一次循环
+                    if (queueNames.isEmpty()) {
+                        // 分区数少于消费线程数，当前线程空闲
+                        Thread.sleep(seckillProp.getBlockMillis());
                         continue;
                     }
-                    // 2.2 成功可以下单
-                    MapRecord<String, Object, Object> record = list.get(0);  // string : 消息的id   消息封装成map
-                    Map<Object, Object> values = record.getValue();
-                    // 使用Map填充Bean对象
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true);
-                    // 3.创建订单
-                    handleVoucherOrder(voucherOrder);
-                    // 4.ack确认  SACK stream.orders g1 id
-                    stringRedisTemplate.opsForStream().acknowledge(queueName,"g1",record.getId());
+                    // 0.定期认领空闲的消息(消费者下线、分区重新分配、或者自己多次处理失败)
+                    long now = System.currentTimeMillis();
+                    if (now >= nextClaimMillis) {
+                        nextClaimMillis = now + seckillProp.getClaimIntervalMillis();
+                        for (String queueName : queueNames) {
+                            if (claimIdle(queueName) > 0) {
+                                handlePendingList(queueName);
+                            }
+                        }
+                    }
+                    // 集群下一条XREADGROUP只能读取同一个槽的分区，按槽分组读取，阻塞时间平分
+                    List<List<String>> readGroups = readGroups(queueNames);
+                    long blockMillis = Math.max(1, seckillProp.getBlockMillis() / readGroups.size());
+                    for (List<String> readGroup : readGroups) {
+                        readAndHandle(readGroup, blockMillis);
+                    }
                 } catch (Exception e) {
+                    if (!running) {
+                        break;
+                    }
                     log.error("处理订单异常", e);
-                    handlePendingList();
+                    if (causedBy(e, "NOGROUP")) {
+                        // 消息队列或者消费者组被删除，重新创建
+                        queueNames.forEach(VoucherOrderServiceImpl.this::createGroup);
+                        continue;
+                    }
+                    queueNames.forEach(this::handlePendingList);
+                }
+            }
+        }
+
+        /**
+         * 读取并处理一组分区的新消息
+         */
+        private void readAndHandle(List<String> queueNames, long blockMillis) {
+            // 1.获取消息队列中的订单信息 XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS stream.orders:{0} stream.orders:{1} ...
+            //    批量模式下 COUNT 为 hmdp.seckill.batch-size，一次读取这一组的所有分区
+            @SuppressWarnings("unchecked")
+            StreamOffset<String>[] offsets = queueNames.stream()
+                    .map(queueName -> StreamOffset.create(queueName, ReadOffset.lastConsumed()))
+                    .toArray(StreamOffset[]::new);
+            List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                    consumer, //消费者组和消费者配置
+                    StreamReadOptions.empty().count(readCount()).block(Duration.ofMillis(blockMillis)), // 读取参数
+                    offsets //消息队列和读取方式
+
+            );
+            // 2. 判断消息队列消息是否获取成功，
+            if (list == null || list.isEmpty()) {
+                // 2.1 失败 继续下一次循环
+                return;
+            }
+            // 2.2 成功可以下单，3.创建订单，4.ack确认，按分区分别处理
+            Map<String, List<MapRecord<String, Object, Object>>> byQueue = list.stream()
+                    .collect(Collectors.groupingBy(MapRecord::getStream, LinkedHashMap::new, Collectors.toList()));
+            for (Map.Entry<String, List<MapRecord<String, Object, Object>>> entry : byQueue.entrySet()) {
+                if (handleRecords(entry.getKey(), consumer.getGroup(), entry.getValue()) < entry.getValue().size()) {
+                    // 部分订单失败，没有ack的消息留在pendingList中，立即重试
+                    handlePendingList(entry.getKey());
                 }
             }
         }
@@ -130,13 +273,14 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         /**
          * 处理异常的消息，继续去pendingList中进行消费
          */
-        private void handlePendingList() {
-            while (true) {
+        private void handlePendingList(String queueName) {
+            int failedRounds = 0;
+            while (running) {
                 try {
-                    // 1.获取pengingList队列中的订单信息 XREADGROUP GROUP g1 c1 COUNT 1 2000 STREAMS stream.orders 0
+                    // 1.获取pengingList队列中的订单信息 XREADGROUP GROUP g1 c1 COUNT n STREAMS stream.orders 0
                     List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"), //消费者组和消费者配置
-                            StreamReadOptions.empty().count(1), // 读取参数
+                            consumer, //消费者组和消费者配置
+                            StreamReadOptions.empty().count(readCount()), // 读取参数
                             StreamOffset.create(queueName, ReadOffset.from("0")) //消息队列和读取方式
                     );
                     // 2. 判断消息队列消息是否获取成功，
@@ -144,17 +288,22 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
                         // 2.1 失败 ,说明pendingList中没有异常消息，不再继续
                         break;
                     }
-                    // 2.2 有，解析订单
-                    MapRecord<String, Object, Object> record = list.get(0);  // string : 消息的id   消息封装成map
-                    Map<Object, Object> values = record.getValue();
-                    // 使用Map填充Bean对象
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true);
-                    // 3.创建订单
-                    handleVoucherOrder(voucherOrder);
-                    // 4.ack确认  SACK stream.orders g1 id
-                    stringRedisTemplate.opsForStream().acknowledge(queueName,"g1",record.getId());
+                    // 2.2 有，解析订单，创建订单并ack
+                    if (handleRecords(queueName, consumer.getGroup(), list) > 0) {
+                        failedRounds = 0;
+                        continue;
+                    }
+                    // 2.3 一条都没有成功，重试几次后回到主循环，等消息空闲后重新认领
+                    if (++failedRounds >= seckillProp.getPendingRetries()) {
+                        log.error("pendingList中有 {} 条订单多次处理失败，稍后重试", list.size());
+                        break;
+                    }
+                    Thread.sleep(20);
                 } catch (Exception e) {
                     log.error("处理订单异常", e);
+                    if (causedBy(e, "NOGROUP")) {
+                        break;
+                    }
                     try {
                         Thread.sleep(20);
                     } catch (InterruptedException ex) {
@@ -163,32 +312,181 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
                 }
             }
         }
+
+        /**
+         * 认领消费者组中空闲超过 claim-idle-millis 的消息，包括已经下线的消费者和自己多次处理失败的消息
+         * 1. XPENDING stream.orders g1 - + count 找出空闲的消息
+         * 2. XCLAIM stream.orders g1 consumer minIdle id... JUSTID 认领，多个消费者同时认领时只有一个成功
+         * 3. 投递次数达到 max-deliveries 的消息转入死信队列并ack，其它的进入当前消费者的pendingList
+         * 4. 删除空闲超过 consumer-expire-millis 并且没有待处理消息的消费者(重启后的旧名称)
+         * @return 认领后需要处理的条数
+         */
+        private int claimIdle(String queueName) {
+            String group = consumer.getGroup();
+            long claimIdleMillis = seckillProp.getClaimIdleMillis();
+            //1.找出空闲的消息
+            PendingMessages pending = stringRedisTemplate.opsForStream()
+                    .pending(queueName, group, Range.unbounded(), Math.max(1, seckillProp.getBatchSize()));
+            Map<RecordId, Long> deliveries = new HashMap<>();
+            for (PendingMessage message : pending) {
+                if (message.getElapsedTimeSinceLastDelivery().toMillis() >= claimIdleMillis) {
+                    deliveries.put(message.getId(), message.getTotalDeliveryCount());
+                }
+            }
+            int claimedCount = 0;
+            if (!deliveries.isEmpty()) {
+                //2.认领
+                List<RecordId> claimed = stringRedisTemplate.execute((RedisCallback<List<RecordId>>) connection ->
+                        connection.streamCommands().xClaimJustId(queueName.getBytes(StandardCharsets.UTF_8), group,
+                                consumer.getName(), RedisStreamCommands.XClaimOptions.minIdleMs(claimIdleMillis)
+                                        .ids(new ArrayList<>(deliveries.keySet()))));
+                //3.投递次数过多的消息转入死信队列
+                List<RecordId> dead = new ArrayList<>();
+                for (RecordId id : claimed == null ? Collections.<RecordId>emptyList() : claimed) {
+                    if (deliveries.getOrDefault(id, 0L) >= seckillProp.getMaxDeliveries()) {
+                        dead.add(id);
+                    } else {
+                        claimedCount++;
+                    }
+                }
+                if (!dead.isEmpty()) {
+                    deadLetter(queueName, dead);
+                }
+                if (claimedCount > 0) {
+                    log.info("消费者 {} 认领了 {} 条空闲的订单消息", consumer.getName(), claimedCount);
+                }
+            }
+            //4.清理旧的消费者
+            StreamInfo.XInfoConsumers consumers = stringRedisTemplate.opsForStream().consumers(queueName, group);
+            for (int i = 0; i < consumers.size(); i++) {
+                StreamInfo.XInfoConsumer info = consumers.get(i);
+                if (info.pendingCount() == 0 && info.idleTimeMs() >= seckillProp.getConsumerExpireMillis()
+                        && !consumer.getName().equals(info.consumerName())) {
+                    stringRedisTemplate.opsForStream().deleteConsumer(queueName, Consumer.from(group, info.consumerName()));
+                    log.info("删除空闲的消费者 {}", info.consumerName());
+                }
+            }
+            return claimedCount;
+        }
+
+        /**
+         * 把消息复制到死信队列后ack，需要人工处理
+         */
+        private void deadLetter(String queueName, List<RecordId> ids) {
+            for (RecordId id : ids) {
+                List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                        .range(queueName, Range.closed(id.getValue(), id.getValue()));
+                if (records != null && !records.isEmpty()) {
+                    stringRedisTemplate.opsForStream().add(StreamRecords.mapBacked(records.get(0).getValue())
+                            .withStreamKey(seckillProp.getDeadLetterQueue()));
+                }
+                log.error("订单消息 {} 多次处理失败，转入死信队列 {}", id, seckillProp.getDeadLetterQueue());
+            }
+            stringRedisTemplate.opsForStream().acknowledge(queueName, consumer.getGroup(), ids.toArray(new RecordId[0]));
+        }
+    }
+
+    /**
+     * 一次XREADGROUP读取的分区：单机时一次读取所有分区，集群时按槽分组
+     */
+    private List<List<String>> readGroups(List<String> queueNames) {
+        RedisConnectionFactory factory = stringRedisTemplate.getConnectionFactory();
+        if (queueNames.size() <= 1
+                || !(factory instanceof LettuceConnectionFactory && ((LettuceConnectionFactory) factory).isClusterAware())) {
+            return Collections.singletonList(queueNames);
+        }
+        return new ArrayList<>(queueNames.stream()
+                .collect(Collectors.groupingBy(SlotHash::getSlot, LinkedHashMap::new, Collectors.toList()))
+                .values());
+    }
+
+    /**
+     * 每次从消息队列读取的条数
+     */
+    private int readCount() {
+        return seckillProp.isBatchEnabled() ? Math.max(1, seckillProp.getBatchSize()) : 1;
+    }
+
+    /**
+     * 处理一批消息，成功的消息用一次XACK确认，失败的消息不确认，留在pendingList中
+     * 批量模式下整批在一个事务中写入，失败时回滚并逐条处理，找出失败的订单；
+     * 只有写入数据库(或者已经写入过)的订单才会ack，失败的订单重试多次后由 claimIdle 转入死信队列
+     *
+     * @param queueName 消息队列
+     * @param group     消费者组
+     * @param list      消息
+     * @return 确认的条数
+     */
+    private int handleRecords(String queueName, String group, List<MapRecord<String, Object, Object>> list) {
+        List<RecordId> acked = new ArrayList<>(list.size());
+        List<VoucherOrder> orders = new ArrayList<>(list.size());
+        List<RecordId> orderRecordIds = new ArrayList<>(list.size());
+        for (MapRecord<String, Object, Object> record : list) {
+            try {
+                // 使用Map填充Bean对象
+                orders.add(BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true));
+                orderRecordIds.add(record.getId());
+            } catch (Exception e) {
+                // 格式错误的消息重试也不会成功，直接确认
+                log.error("订单消息格式错误，丢弃：{}", record, e);
+                acked.add(record.getId());
+            }
+        }
+        boolean batched = false;
+        if (seckillProp.isBatchEnabled() && orders.size() > 1) {
+            try {
+                proxy.createVoucherOrders(orders);
+                acked.addAll(orderRecordIds);
+                batched = true;
+            } catch (Exception e) {
+                log.warn("批量创建 {} 个订单失败，逐条处理", orders.size(), e);
+            }
+        }
+        if (!batched) {
+            for (int i = 0; i < orders.size(); i++) {
+                try {
+                    handleVoucherOrder(orders.get(i));
+                    acked.add(orderRecordIds.get(i));
+                } catch (Exception e) {
+                    log.error("处理订单异常，订单id：{}", orders.get(i).getId(), e);
+                }
+            }
+        }
+        if (!acked.isEmpty()) {
+            // ack确认  XACK stream.orders g1 id1 id2 ...
+            stringRedisTemplate.opsForStream().acknowledge(queueName, group, acked.toArray(new RecordId[0]));
+        }
+        return acked.size();
     }
 
 
     /**
      * 存放IVoucherOrderService代理对象
-     * 注意在子线程中无法获取到代理对象
+     * 注意在子线程中无法通过AopContext获取到代理对象，这里延迟注入自身的代理，
+     * 应用重启后没有请求时也能处理pendingList中的订单
      */
+    @Lazy
+    @Resource
     private IVoucherOrderService proxy;
 
     /**
      * 处理订单创建
+     * Lua脚本已经扣减了Redis库存并记录了用户，这里返回就会ack，所以没有写入数据库时必须抛出异常，
+     * 消息留在pendingList中重试，多次失败后转入死信队列
      *
      * @param voucherOrder
      */
     private void handleVoucherOrder(VoucherOrder voucherOrder) {
         //1、 获取用户
         Long userId = voucherOrder.getUserId();
-        //2、创建锁对象
-        RLock lock = redissonClient.getLock("lock:order" + userId);
+        //2、创建锁对象，一人一单是按优惠券限制的，同一用户不同优惠券的订单可以并行处理
+        RLock lock = redissonClient.getLock("lock:order:" + userId + ":" + voucherOrder.getVoucherId());
         //3、获取锁
         boolean tryLock = lock.tryLock();
         // 判断是否获取锁成功
         if (!tryLock) {
-            // 获取锁失败，返回错误信息
-            log.error("不允许重复下单！");
-            return;
+            // 同一个订单正在被其它消费者处理(例如刚被认领)，不能ack，稍后重试
+            throw new IllegalStateException("订单正在处理中，稍后重试，订单id：" + voucherOrder.getId());
         }
         try {
             proxy.createVoucherOrder(voucherOrder);
@@ -208,6 +506,10 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
      */
     @Override
     public Result seckillVoucher(Long voucherId) {
+        // 0.本地已经标记售罄，直接拒绝，不访问Redis
+        if (soldOutFlags.isSoldOut(voucherId)) {
+            return Result.fail("库存不足");
+        }
         // 获取用户id
         Long userId = UserHolder.getUser().getId();
         // 获取订单id
@@ -215,18 +517,18 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         //1.执行lua脚本 -- 完成秒杀资格判断,发送订单的消息到消息队列
         Long result = stringRedisTemplate.execute(
                 SECKILL_SCRIPT,
-                Collections.emptyList(),
+                orderPartitions.seckillKeys(voucherId),
                 voucherId.toString(), userId.toString(), String.valueOf(orderId)
         );
         //2. 判断结果是否为0
         int r = result.intValue();
         if (r != 0) {
-            //2.1 不为0 没有购买资格
+            //2.1 不为0 没有购买资格，库存不足时标记售罄并通知其它节点
+            if (r == 1) {
+                soldOutFlags.markSoldOut(voucherId);
+            }
             return Result.fail(r == 1 ? "库存不足" : "不能重复下单");
         }
-        // 3、获取代理对象
-        //获取当前对象的代理对象（事务）
-        proxy = (IVoucherOrderService) AopContext.currentProxy();
         //3. 返回订单id
         return Result.ok(orderId);
     }
@@ -299,8 +601,9 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         int count = query().eq("user_id", userId).eq("voucher_id", voucherOrder.getVoucherId()).count();
         //5.2. 判断是否存在
         if (count > 0) {
-            //用户已经购买过了
+            //用户已经购买过了，或者是重试的消息已经处理过
             log.error("用户已经购买过一次！！");
+            return;
         }
         //6.扣减库存
         boolean success = seckillVoucherService.update()
@@ -309,13 +612,61 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
                 .eq("voucher_id", voucherOrder.getVoucherId()).gt("stock", 0) // where id = ? and stock =?
                 .update();
         if (!success) {
-            //扣减失败
-            log.error("库存不足！");
+            //扣减失败：Redis已经扣过库存，说明数据库和Redis的库存不一致，不能丢弃订单，留在pendingList中重试
+            throw new IllegalStateException("库存不足！订单id：" + voucherOrder.getId());
         }
         // 7 创建订单
         save(voucherOrder);
     }
 
+    /**
+     * 批量创建订单
+     * 1. 一次查询过滤掉已经购买过的订单(包括上一次写入成功但没有ack的重试消息)
+     * 2. 每个优惠券执行一次 stock = stock - k，按优惠券id顺序更新，多个消费者之间不会死锁
+     * 3. 订单用一条批量的insert写入
+     * 任意一步失败整批回滚
+     *
+     * @param voucherOrders
+     */
+    @Transactional
+    @Override
+    public void createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        //1.一人一单，查询这一批用户已有的订单
+        Set<Long> userIds = voucherOrders.stream().map(VoucherOrder::getUserId).collect(Collectors.toSet());
+        Set<Long> voucherIds = voucherOrders.stream().map(VoucherOrder::getVoucherId).collect(Collectors.toSet());
+        Set<String> bought = query().select("user_id", "voucher_id")
+                .in("user_id", userIds).in("voucher_id", voucherIds)
+                .list().stream()
+                .map(order -> order.getUserId() + ":" + order.getVoucherId())
+                .collect(Collectors.toCollection(HashSet::new));
+        List<VoucherOrder> toSave = new ArrayList<>(voucherOrders.size());
+        Map<Long, Integer> stockDeltas = new TreeMap<>();
+        for (VoucherOrder voucherOrder : voucherOrders) {
+            if (!bought.add(voucherOrder.getUserId() + ":" + voucherOrder.getVoucherId())) {
+                log.error("用户已经购买过一次！！订单id：{}", voucherOrder.getId());
+                continue;
+            }
+            toSave.add(voucherOrder);
+            stockDeltas.merge(voucherOrder.getVoucherId(), 1, Integer::sum);
+        }
+        if (toSave.isEmpty()) {
+            return;
+        }
+        //2.扣减库存，每个优惠券一条update
+        for (Map.Entry<Long, Integer> entry : stockDeltas.entrySet()) {
+            boolean success = seckillVoucherService.update()
+                    .setSql("stock = stock - " + entry.getValue())
+                    .eq("voucher_id", entry.getKey()).ge("stock", entry.getValue())
+                    .update();
+            if (!success) {
+                // 回滚整批，由调用方逐条处理
+                throw new IllegalStateException("库存不足！优惠券id：" + entry.getKey());
+            }
+        }
+        //3.批量创建订单
+        saveBatch(toSave, toSave.size());
+    }
+
     /**
      * 秒杀优惠券的方法--- 通过数据库
      *
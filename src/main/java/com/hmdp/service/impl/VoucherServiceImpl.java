@@ -1,21 +1,33 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.annotation.EvictCache;
+import com.hmdp.annotation.ReadThroughCache;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
 import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.SeckillOrderPartitions;
+import com.hmdp.utils.SeckillSoldOutFlags;
+import org.springframework.aop.framework.AopContext;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.web.bind.annotation.RequestBody;
 
 import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
-import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_VOUCHER_KEY;
 
 /**
  * <p>
@@ -28,22 +40,97 @@ import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
 @Service
 public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> implements IVoucherService {
 
+    /**
+     * 秒杀券的类型
+     */
+    private static final Integer SECKILL_VOUCHER_TYPE = 1;
+
     @Resource
     private ISeckillVoucherService seckillVoucherService;
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private SeckillSoldOutFlags soldOutFlags;
+
+    @Resource
+    private SeckillOrderPartitions orderPartitions;
+
     @Override
     public Result queryVoucherOfShop(Long shopId) {
-        // 查询优惠券信息
+        // 查询优惠券信息，通过代理调用才能经过缓存
+        IVoucherService proxy = (IVoucherService) AopContext.currentProxy();
+        List<Voucher> vouchers = proxy.queryVouchersOfShop(shopId);
+        // 缓存中没有秒杀券的库存，读取实时库存后返回结果
+        return Result.ok(withSeckillStock(vouchers));
+    }
+
+    /**
+     * 缓存1分钟，新增优惠券时删除
+     * 秒杀券的库存变化太快，不放进缓存，由 queryVoucherOfShop 从Redis读取
+     */
+    @Override
+    @ReadThroughCache(prefix = CACHE_SHOP_VOUCHER_KEY, key = "#shopId", ttl = 1)
+    public List<Voucher> queryVouchersOfShop(Long shopId) {
         List<Voucher> vouchers = getBaseMapper().queryVoucherOfShop(shopId);
-        // 返回结果
-        return Result.ok(vouchers);
+        vouchers.forEach(voucher -> voucher.setStock(null));
+        return vouchers;
+    }
+
+    /**
+     * 复制优惠券列表并填入秒杀券的实时库存(缓存中的对象是共享的，不能直接修改)
+     * 库存以Redis为准，一次批量读取；Redis中没有库存的秒杀券再查询数据库
+     */
+    private List<Voucher> withSeckillStock(List<Voucher> vouchers) {
+        List<Voucher> result = new ArrayList<>(vouchers.size());
+        List<Long> seckillIds = new ArrayList<>();
+        List<String> stockKeys = new ArrayList<>();
+        for (Voucher voucher : vouchers) {
+            result.add(BeanUtil.copyProperties(voucher, Voucher.class));
+            if (SECKILL_VOUCHER_TYPE.equals(voucher.getType())) {
+                seckillIds.add(voucher.getId());
+                stockKeys.add(orderPartitions.stockKey(voucher.getId()));
+            }
+        }
+        if (seckillIds.isEmpty()) {
+            return result;
+        }
+        //1.Redis中的库存
+        Map<Long, Integer> stocks = new HashMap<>(seckillIds.size());
+        List<String> values = stringRedisTemplate.opsForValue().multiGet(stockKeys);
+        List<Long> missing = new ArrayList<>();
+        for (int i = 0; i < seckillIds.size(); i++) {
+            String value = values == null ? null : values.get(i);
+            if (StrUtil.isNotBlank(value)) {
+                stocks.put(seckillIds.get(i), Math.max(0, Integer.parseInt(value)));
+            } else {
+                missing.add(seckillIds.get(i));
+            }
+        }
+        //2.Redis中没有的查询数据库
+        if (!missing.isEmpty()) {
+            for (SeckillVoucher seckillVoucher : seckillVoucherService.listByIds(missing)) {
+                stocks.put(seckillVoucher.getVoucherId(), seckillVoucher.getStock());
+            }
+        }
+        for (Voucher voucher : result) {
+            if (SECKILL_VOUCHER_TYPE.equals(voucher.getType())) {
+                voucher.setStock(stocks.get(voucher.getId()));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    @EvictCache(prefix = CACHE_SHOP_VOUCHER_KEY, key = "#voucher.shopId")
+    public void addVoucher(Voucher voucher) {
+        save(voucher);
     }
 
     @Override
     @Transactional
+    @EvictCache(prefix = CACHE_SHOP_VOUCHER_KEY, key = "#voucher.shopId")
     public void addSeckillVoucher(@RequestBody Voucher voucher) {
         // 保存优惠券
         save(voucher);
@@ -55,7 +142,51 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
 
-        // 保存秒杀的库存到redis中
-        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(),voucher.getStock().toString());
+        // 事务提交后：保存秒杀的库存到redis中，清除售罄标记
+        afterCommit(() -> {
+            stringRedisTemplate.opsForValue().set(orderPartitions.stockKey(voucher.getId()),voucher.getStock().toString());
+            soldOutFlags.clear(voucher.getId());
+        });
+    }
+
+    @Override
+    @Transactional
+    public boolean restockSeckillVoucher(Long voucherId, Integer amount) {
+        Voucher voucher = getById(voucherId);
+        if (voucher == null || amount == null || amount <= 0) {
+            return false;
+        }
+        // 1.数据库增加库存
+        boolean success = seckillVoucherService.update()
+                .setSql("stock = stock + " + amount)
+                .eq("voucher_id", voucherId)
+                .update();
+        if (!success) {
+            return false;
+        }
+        // 事务提交后再修改Redis，提交失败时Redis的库存不会比数据库多
+        afterCommit(() -> {
+            // 2.Redis增加库存
+            stringRedisTemplate.opsForValue().increment(orderPartitions.stockKey(voucherId), amount);
+            // 3.增加补货版本并清除售罄标记(必须在增加库存之后)，店铺优惠券列表的缓存中没有库存，不需要删除
+            soldOutFlags.clear(voucherId);
+        });
+        return true;
+    }
+
+    /**
+     * 当前事务提交后执行，没有事务时立即执行
+     */
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
     }
 }
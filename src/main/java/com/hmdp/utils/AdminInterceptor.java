@@ -0,0 +1,36 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.AdminProp;
+import com.hmdp.dto.UserDTO;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * 管理接口拦截器，只有配置的管理员用户可以访问
+ * 在登录拦截器之后执行，未登录的请求已经返回401
+ */
+public class AdminInterceptor implements HandlerInterceptor {
+
+    private final AdminProp adminProp;
+
+    public AdminInterceptor(AdminProp adminProp) {
+        this.adminProp = adminProp;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        UserDTO user = UserHolder.getUser();
+        if (user == null) {
+            response.setStatus(401);
+            return false;
+        }
+        //不是管理员，没有权限
+        if (!adminProp.getUserIds().contains(user.getId())) {
+            response.setStatus(403);
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,523 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * 紧凑的二进制编解码，按类的字段结构(schema)顺序写入字段值，不写字段名
+ * 格式：'B' + Base64( 版本(1字节) + schema指纹(4字节) + 空值位图 + 非空字段的值 )
+ * 整数使用zigzag变长编码，时间使用秒+纳秒；类的字段变化后指纹不一致，解码返回null
+ * 同一个类的对象列表：'B' + Base64( 列表版本(1字节) + 元素schema指纹(4字节) + 元素个数 + 每个元素的空值位图和字段值 )
+ * 列表只查一次schema，逐个元素顺序读取，不需要先解析成中间结构再转换；读取时必须使用带元素类型的泛型，例如 List&lt;ShopType&gt;
+ */
+public class BinaryCacheCodec implements CacheCodec {
+
+    public static final String NAME = "binary";
+
+    public static final char MARKER = 'B';
+
+    private static final byte VERSION = 1;
+
+    private static final byte LIST_VERSION = 2;
+
+    /**
+     * 类 -> 字段结构，只在第一次使用时反射
+     */
+    private final Map<Class<?>, Schema> schemas = new ConcurrentHashMap<>();
+
+    @Override
+    public char marker() {
+        return MARKER;
+    }
+
+    @Override
+    public boolean supports(Object value) {
+        if (value instanceof List) {
+            return elementSchemaOf((List<?>) value) != null;
+        }
+        return value != null && schemaOf(value.getClass()) != null;
+    }
+
+    @Override
+    public String encode(Object value) {
+        if (value instanceof List) {
+            return encodeList((List<?>) value);
+        }
+        Schema schema = schemaOf(value.getClass());
+        if (schema == null) {
+            throw new IllegalArgumentException("不支持二进制编码的类型：" + value.getClass());
+        }
+        Output out = new Output(64);
+        out.writeByte(VERSION);
+        out.writeInt(schema.fingerprint);
+        try {
+            writeFields(out, schema, value);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+        return MARKER + Base64.getEncoder().encodeToString(out.toByteArray());
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <R> R decode(String text, Type type) {
+        if (text.isEmpty() || text.charAt(0) != MARKER) {
+            return null;
+        }
+        if (type instanceof ParameterizedType) {
+            return (R) decodeList(text, (ParameterizedType) type);
+        }
+        if (!(type instanceof Class)) {
+            return null;
+        }
+        Schema schema = schemaOf((Class<?>) type);
+        if (schema == null) {
+            return null;
+        }
+        Input in = new Input(Base64.getDecoder().decode(text.substring(1)));
+        if (in.readByte() != VERSION || in.readInt() != schema.fingerprint) {
+            // 旧版本或者类的字段变了，当作未命中
+            return null;
+        }
+        try {
+            return (R) readFields(in, schema);
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private String encodeList(List<?> list) {
+        Schema schema = elementSchemaOf(list);
+        if (schema == null) {
+            throw new IllegalArgumentException("不支持二进制编码的列表，元素必须是同一个类且不为null");
+        }
+        Output out = new Output(64 * list.size());
+        out.writeByte(LIST_VERSION);
+        out.writeInt(schema.fingerprint);
+        out.writeVarLong(list.size());
+        try {
+            for (Object element : list) {
+                writeFields(out, schema, element);
+            }
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+        return MARKER + Base64.getEncoder().encodeToString(out.toByteArray());
+    }
+
+    /**
+     * 解码列表，目标类型必须是 List&lt;X&gt; / Collection&lt;X&gt; / ArrayList&lt;X&gt;
+     */
+    private List<Object> decodeList(String text, ParameterizedType type) {
+        Type raw = type.getRawType();
+        Type[] args = type.getActualTypeArguments();
+        if (!(raw instanceof Class) || !((Class<?>) raw).isAssignableFrom(ArrayList.class)
+                || args.length != 1 || !(args[0] instanceof Class)) {
+            return null;
+        }
+        Schema schema = schemaOf((Class<?>) args[0]);
+        if (schema == null) {
+            return null;
+        }
+        Input in = new Input(Base64.getDecoder().decode(text.substring(1)));
+        if (in.readByte() != LIST_VERSION || in.readInt() != schema.fingerprint) {
+            return null;
+        }
+        int size = (int) in.readVarLong();
+        List<Object> list = new ArrayList<>(size);
+        try {
+            for (int i = 0; i < size; i++) {
+                list.add(readFields(in, schema));
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+        return list;
+    }
+
+    /**
+     * 列表元素的字段结构，空列表、有null元素、元素类型不一致或者不是普通JavaBean的返回null
+     */
+    private Schema elementSchemaOf(List<?> list) {
+        if (list.isEmpty() || list.get(0) == null) {
+            return null;
+        }
+        Class<?> elementType = list.get(0).getClass();
+        for (Object element : list) {
+            if (element == null || element.getClass() != elementType) {
+                return null;
+            }
+        }
+        return schemaOf(elementType);
+    }
+
+    private void writeFields(Output out, Schema schema, Object value) throws IllegalAccessException {
+        FieldCodec[] fields = schema.fields;
+        //1.空值位图
+        byte[] nullBits = new byte[(fields.length + 7) / 8];
+        Object[] values = new Object[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            values[i] = fields[i].field.get(value);
+            if (values[i] == null) {
+                nullBits[i >>> 3] |= 1 << (i & 7);
+            }
+        }
+        out.writeBytes(nullBits);
+        //2.非空的字段值
+        for (int i = 0; i < fields.length; i++) {
+            if (values[i] != null) {
+                fields[i].write(out, values[i]);
+            }
+        }
+    }
+
+    private Object readFields(Input in, Schema schema) throws ReflectiveOperationException {
+        FieldCodec[] fields = schema.fields;
+        byte[] nullBits = in.readBytes((fields.length + 7) / 8);
+        Object bean = schema.constructor.newInstance();
+        for (int i = 0; i < fields.length; i++) {
+            if ((nullBits[i >>> 3] & (1 << (i & 7))) == 0) {
+                fields[i].field.set(bean, fields[i].read(in));
+            }
+        }
+        return bean;
+    }
+
+    /**
+     * 获取类的字段结构，不是普通JavaBean的返回null
+     */
+    private Schema schemaOf(Class<?> type) {
+        Schema schema = schemas.get(type);
+        if (schema == null) {
+            schema = schemas.computeIfAbsent(type, Schema::create);
+        }
+        return schema == Schema.UNSUPPORTED ? null : schema;
+    }
+
+    /**
+     * 类的字段结构
+     */
+    private static class Schema {
+
+        private static final Schema UNSUPPORTED = new Schema(null, new FieldCodec[0], 0);
+
+        private final Constructor<?> constructor;
+        private final FieldCodec[] fields;
+        private final int fingerprint;
+
+        private Schema(Constructor<?> constructor, FieldCodec[] fields, int fingerprint) {
+            this.constructor = constructor;
+            this.fields = fields;
+            this.fingerprint = fingerprint;
+        }
+
+        private static Schema create(Class<?> type) {
+            if (type.isPrimitive() || type.isArray() || type.isEnum() || type.isInterface()
+                    || Modifier.isAbstract(type.getModifiers())
+                    || type.getName().startsWith("java.")
+                    || Collection.class.isAssignableFrom(type) || Map.class.isAssignableFrom(type)) {
+                return UNSUPPORTED;
+            }
+            Constructor<?> constructor;
+            try {
+                constructor = type.getDeclaredConstructor();
+                constructor.setAccessible(true);
+            } catch (NoSuchMethodException e) {
+                return UNSUPPORTED;
+            }
+            //1.收集所有实例字段(包括父类)，按名称排序保证顺序稳定
+            List<Field> all = new ArrayList<>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    all.add(field);
+                }
+            }
+            all.sort(Comparator.comparing(Field::getName));
+            //2.字段名和类型组成指纹，类的结构变化后旧数据自动失效
+            StringBuilder signature = new StringBuilder(type.getName());
+            FieldCodec[] fields = new FieldCodec[all.size()];
+            for (int i = 0; i < all.size(); i++) {
+                Field field = all.get(i);
+                fields[i] = new FieldCodec(field);
+                signature.append(';').append(field.getName()).append(':').append(field.getGenericType().getTypeName());
+            }
+            CRC32 crc = new CRC32();
+            crc.update(signature.toString().getBytes(StandardCharsets.UTF_8));
+            return new Schema(constructor, fields, (int) crc.getValue());
+        }
+    }
+
+    private enum Kind {
+        LONG, INT, SHORT, BYTE, DOUBLE, FLOAT, BOOLEAN, CHAR, STRING, LOCAL_DATE_TIME, LOCAL_DATE, BIG_DECIMAL, JSON
+    }
+
+    /**
+     * 单个字段的读写
+     */
+    private static class FieldCodec {
+        private final Field field;
+        private final Kind kind;
+
+        private FieldCodec(Field field) {
+            this.field = field;
+            this.kind = kindOf(field.getType());
+        }
+
+        private static Kind kindOf(Class<?> c) {
+            if (c == Long.class || c == long.class) {
+                return Kind.LONG;
+            }
+            if (c == Integer.class || c == int.class) {
+                return Kind.INT;
+            }
+            if (c == Short.class || c == short.class) {
+                return Kind.SHORT;
+            }
+            if (c == Byte.class || c == byte.class) {
+                return Kind.BYTE;
+            }
+            if (c == Double.class || c == double.class) {
+                return Kind.DOUBLE;
+            }
+            if (c == Float.class || c == float.class) {
+                return Kind.FLOAT;
+            }
+            if (c == Boolean.class || c == boolean.class) {
+                return Kind.BOOLEAN;
+            }
+            if (c == Character.class || c == char.class) {
+                return Kind.CHAR;
+            }
+            if (c == String.class) {
+                return Kind.STRING;
+            }
+            if (c == LocalDateTime.class) {
+                return Kind.LOCAL_DATE_TIME;
+            }
+            if (c == LocalDate.class) {
+                return Kind.LOCAL_DATE;
+            }
+            if (c == BigDecimal.class) {
+                return Kind.BIG_DECIMAL;
+            }
+            // 其它类型(嵌套对象、集合等)按JSON字符串写入
+            return Kind.JSON;
+        }
+
+        private void write(Output out, Object value) {
+            switch (kind) {
+                case LONG:
+                    out.writeVarLong((Long) value);
+                    break;
+                case INT:
+                    out.writeVarLong((Integer) value);
+                    break;
+                case SHORT:
+                    out.writeVarLong((Short) value);
+                    break;
+                case BYTE:
+                    out.writeByte((Byte) value);
+                    break;
+                case DOUBLE:
+                    out.writeLong(Double.doubleToRawLongBits((Double) value));
+                    break;
+                case FLOAT:
+                    out.writeInt(Float.floatToRawIntBits((Float) value));
+                    break;
+                case BOOLEAN:
+                    out.writeByte((Boolean) value ? 1 : 0);
+                    break;
+                case CHAR:
+                    out.writeVarLong((Character) value);
+                    break;
+                case STRING:
+                    out.writeString((String) value);
+                    break;
+                case LOCAL_DATE_TIME:
+                    LocalDateTime time = (LocalDateTime) value;
+                    out.writeVarLong(time.toEpochSecond(ZoneOffset.UTC));
+                    out.writeVarLong(time.getNano());
+                    break;
+                case LOCAL_DATE:
+                    out.writeVarLong(((LocalDate) value).toEpochDay());
+                    break;
+                case BIG_DECIMAL:
+                    out.writeString(((BigDecimal) value).toString());
+                    break;
+                default:
+                    out.writeString(JSONUtil.toJsonStr(value));
+            }
+        }
+
+        private Object read(Input in) {
+            switch (kind) {
+                case LONG:
+                    return in.readVarLong();
+                case INT:
+                    return (int) in.readVarLong();
+                case SHORT:
+                    return (short) in.readVarLong();
+                case BYTE:
+                    return in.readByte();
+                case DOUBLE:
+                    return Double.longBitsToDouble(in.readLong());
+                case FLOAT:
+                    return Float.intBitsToFloat(in.readInt());
+                case BOOLEAN:
+                    return in.readByte() != 0;
+                case CHAR:
+                    return (char) in.readVarLong();
+                case STRING:
+                    return in.readString();
+                case LOCAL_DATE_TIME:
+                    long seconds = in.readVarLong();
+                    return LocalDateTime.ofEpochSecond(seconds, (int) in.readVarLong(), ZoneOffset.UTC);
+                case LOCAL_DATE:
+                    return LocalDate.ofEpochDay(in.readVarLong());
+                case BIG_DECIMAL:
+                    return new BigDecimal(in.readString());
+                default:
+                    return JSONUtil.toBean(in.readString(), field.getGenericType(), true);
+            }
+        }
+    }
+
+    /**
+     * 自动扩容的字节输出
+     */
+    static class Output {
+        private byte[] buf;
+        private int pos;
+
+        Output(int capacity) {
+            buf = new byte[capacity];
+        }
+
+        private void ensure(int n) {
+            if (pos + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+            }
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            buf[pos++] = (byte) b;
+        }
+
+        void writeBytes(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        void writeInt(int v) {
+            ensure(4);
+            buf[pos++] = (byte) (v >>> 24);
+            buf[pos++] = (byte) (v >>> 16);
+            buf[pos++] = (byte) (v >>> 8);
+            buf[pos++] = (byte) v;
+        }
+
+        void writeLong(long v) {
+            writeInt((int) (v >>> 32));
+            writeInt((int) v);
+        }
+
+        /**
+         * zigzag变长编码，小的数字(包括负数)只占1~2个字节
+         */
+        void writeVarLong(long v) {
+            long zigzag = (v << 1) ^ (v >> 63);
+            ensure(10);
+            while ((zigzag & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((zigzag & 0x7F) | 0x80);
+                zigzag >>>= 7;
+            }
+            buf[pos++] = (byte) zigzag;
+        }
+
+        void writeString(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length);
+            writeBytes(bytes);
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, pos);
+        }
+    }
+
+    /**
+     * 字节输入
+     */
+    static class Input {
+        private final byte[] buf;
+        private int pos;
+
+        Input(byte[] buf) {
+            this.buf = buf;
+        }
+
+        byte readByte() {
+            return buf[pos++];
+        }
+
+        byte[] readBytes(int n) {
+            byte[] bytes = Arrays.copyOfRange(buf, pos, pos + n);
+            pos += n;
+            return bytes;
+        }
+
+        int readInt() {
+            return ((buf[pos++] & 0xFF) << 24) | ((buf[pos++] & 0xFF) << 16)
+                    | ((buf[pos++] & 0xFF) << 8) | (buf[pos++] & 0xFF);
+        }
+
+        long readLong() {
+            return ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+        }
+
+        long readVarLong() {
+            long zigzag = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buf[pos++];
+                zigzag |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+
+        String readString() {
+            int length = (int) readVarLong();
+            String s = new String(buf, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return s;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 内存中的布隆过滤器，只存放long类型的id
+ * 位数组大小 m = -n*ln(p)/(ln2)^2，哈希函数个数 k = m/n*ln2
+ */
+public class BloomFilter {
+
+    /**
+     * 位数组，按long分段
+     */
+    private final AtomicLongArray bits;
+
+    /**
+     * 位数组的大小
+     */
+    private final long bitSize;
+
+    /**
+     * 哈希函数的个数
+     */
+    private final int hashCount;
+
+    /**
+     * @param expectedInsertions 预计插入的元素个数
+     * @param fpp 期望的误判率
+     */
+    public BloomFilter(long expectedInsertions, double fpp) {
+        long n = Math.max(1, expectedInsertions);
+        long m = (long) (-n * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        this.bitSize = Math.max(64, m);
+        this.hashCount = Math.max(1, (int) Math.round((double) bitSize / n * Math.log(2)));
+        this.bits = new AtomicLongArray((int) ((bitSize + 63) / 64));
+    }
+
+    /**
+     * 添加元素
+     * @param id 元素id
+     */
+    public void add(long id) {
+        long hash = mix(id);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            long index = ((h1 + (long) i * h2) & Long.MAX_VALUE) % bitSize;
+            int slot = (int) (index >>> 6);
+            long mask = 1L << index;
+            long old;
+            do {
+                old = bits.get(slot);
+                if ((old & mask) != 0) {
+                    break;
+                }
+            } while (!bits.compareAndSet(slot, old, old | mask));
+        }
+    }
+
+    /**
+     * 判断元素是否可能存在
+     * @param id 元素id
+     * @return false说明一定不存在，true说明可能存在
+     */
+    public boolean mightContain(long id) {
+        long hash = mix(id);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            long index = ((h1 + (long) i * h2) & Long.MAX_VALUE) % bitSize;
+            if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long bitSize() {
+        return bitSize;
+    }
+
+    public int hashCount() {
+        return hashCount;
+    }
+
+    /**
+     * splitmix64 的混淆函数，把连续的id打散
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
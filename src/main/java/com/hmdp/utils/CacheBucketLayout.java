@@ -0,0 +1,233 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheBucketProp;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 缓存的哈希分桶存储，用于数量很多的小对象(店铺、用户)
+ * 一个实体一个string key时，每个key都有dictEntry、redisObject、过期字典等固定开销；
+ * 按id范围把实体放到同一个hash里：cache:shop:{id} -> hash cache:shop:b:{id/bucketSize} 的字段 {id}，
+ * 桶足够小时Redis使用紧凑的listpack(ziplist)编码，固定开销由整个桶分摊
+ * 注意：listpack要求每个值不超过 hash-max-listpack-value(默认64字节)，缓存的值一般更长，需要在Redis中调大
+ * <p>
+ * hash的字段不能单独设置过期时间，字段值写成 '过期时间(epoch毫秒):数据'，读取时判断是否过期；
+ * 写入时清理桶内已过期的字段(读取时不删除)，桶本身的TTL取字段中最晚的过期时间
+ * 对调用方透明：get/set/delete使用完整的key，只有配置的前缀加数字id才使用分桶，其它key返回 handles()=false
+ */
+@Slf4j
+@Component
+public class CacheBucketLayout {
+
+    private static final String BUCKET_INFIX = "b:";
+
+    private static final char EXPIRE_SEPARATOR = ':';
+
+    private static final DefaultRedisScript<Long> SET_SCRIPT;
+
+    static {
+        SET_SCRIPT = new DefaultRedisScript<>();
+        SET_SCRIPT.setLocation(new ClassPathResource("lua/bucket_set.lua"));
+        SET_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate redisTemplate;
+
+    /**
+     * 按前缀长度倒序排列，保证最长前缀优先匹配
+     */
+    private final List<String> prefixes;
+
+    private final int bucketSize;
+
+    public CacheBucketLayout(CacheBucketProp prop, StringRedisTemplate redisTemplate) {
+        this.redisTemplate = redisTemplate;
+        this.prefixes = new ArrayList<>(prop.getPrefixes());
+        this.prefixes.sort(Comparator.comparingInt(String::length).reversed());
+        this.bucketSize = Math.max(1, prop.getBucketSize());
+        for (String prefix : prefixes) {
+            log.info("缓存前缀 {} 使用哈希分桶存储，每个桶 {} 个id", prefix, bucketSize);
+        }
+    }
+
+    /**
+     * 这个key是否使用分桶存储
+     */
+    public boolean handles(String key) {
+        return !prefixes.isEmpty() && locate(key) != null;
+    }
+
+    /**
+     * 读取，不存在或者已过期返回null，空字符串表示缓存的空值
+     */
+    public String get(String key) {
+        Slot slot = require(key);
+        Object value = redisTemplate.opsForHash().get(slot.bucket, slot.field);
+        return unwrap(value, System.currentTimeMillis());
+    }
+
+    /**
+     * 读取值和剩余TTL
+     */
+    public RedisTrackingCache.Entry<String> getWithTtl(String key) {
+        Slot slot = require(key);
+        Object value = redisTemplate.opsForHash().get(slot.bucket, slot.field);
+        long now = System.currentTimeMillis();
+        String text = unwrap(value, now);
+        return new RedisTrackingCache.Entry<>(text, text == null ? null : expireMillis((String) value) - now);
+    }
+
+    /**
+     * 批量读取，一次pipeline，顺序和keys一致
+     */
+    public List<String> multiGet(List<String> keys) {
+        if (keys.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Slot> slots = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            slots.add(require(key));
+        }
+        List<Object> values = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            for (Slot slot : slots) {
+                stringConnection.hGet(slot.bucket, slot.field);
+            }
+            return null;
+        });
+        long now = System.currentTimeMillis();
+        List<String> result = new ArrayList<>(keys.size());
+        for (int i = 0; i < slots.size(); i++) {
+            result.add(unwrap(values.get(i), now));
+        }
+        return result;
+    }
+
+    /**
+     * 写入
+     * @param key 完整的key
+     * @param value 编码后的值
+     * @param ttlMillis 过期时间(毫秒)
+     */
+    public void set(String key, String value, long ttlMillis) {
+        Slot slot = require(key);
+        long now = System.currentTimeMillis();
+        redisTemplate.execute(SET_SCRIPT, Collections.singletonList(slot.bucket),
+                slot.field, wrap(now + ttlMillis, value), String.valueOf(ttlMillis), String.valueOf(now));
+    }
+
+    /**
+     * 在调用方的pipeline中写入，用于批量回写和预热
+     */
+    public void set(StringRedisConnection connection, String key, String value, long ttlMillis) {
+        Slot slot = require(key);
+        long now = System.currentTimeMillis();
+        connection.eval(SET_SCRIPT.getScriptAsString(), ReturnType.INTEGER, 1,
+                slot.bucket, slot.field, wrap(now + ttlMillis, value), String.valueOf(ttlMillis), String.valueOf(now));
+    }
+
+    /**
+     * 删除
+     */
+    public void delete(String key) {
+        Slot slot = require(key);
+        redisTemplate.opsForHash().delete(slot.bucket, slot.field);
+    }
+
+    /**
+     * 桶的key，测试和运维排查使用
+     */
+    public String bucketKey(String key) {
+        return require(key).bucket;
+    }
+
+    private static String unwrap(Object value, long now) {
+        if (value == null) {
+            return null;
+        }
+        String text = (String) value;
+        long expireMillis = expireMillis(text);
+        if (expireMillis <= now) {
+            // 已过期，当作不存在；读取时不删除，HGET和HDEL之间其它线程可能刚写入了新值，
+            // 过期字段由 bucket_set.lua 写入时在脚本内原子地清理，没有写入的桶整体过期
+            return null;
+        }
+        return text.substring(text.indexOf(EXPIRE_SEPARATOR) + 1);
+    }
+
+    private static String wrap(long expireMillis, String value) {
+        return Long.toString(expireMillis) + EXPIRE_SEPARATOR + value;
+    }
+
+    /**
+     * 读取字段值头部的过期时间，格式错误返回0(当作已过期)
+     */
+    private static long expireMillis(String text) {
+        long millis = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == EXPIRE_SEPARATOR) {
+                return i == 0 ? 0 : millis;
+            }
+            if (c < '0' || c > '9') {
+                return 0;
+            }
+            millis = millis * 10 + (c - '0');
+        }
+        return 0;
+    }
+
+    private Slot require(String key) {
+        Slot slot = locate(key);
+        if (slot == null) {
+            throw new IllegalArgumentException("不是分桶存储的key：" + key);
+        }
+        return slot;
+    }
+
+    /**
+     * 解析key对应的桶和字段，不是配置的前缀或者id不是数字返回null
+     */
+    private Slot locate(String key) {
+        for (String prefix : prefixes) {
+            if (!key.startsWith(prefix)) {
+                continue;
+            }
+            int length = key.length() - prefix.length();
+            if (length <= 0 || length > 18) {
+                return null;
+            }
+            long id = 0;
+            for (int i = prefix.length(); i < key.length(); i++) {
+                char c = key.charAt(i);
+                if (c < '0' || c > '9') {
+                    return null;
+                }
+                id = id * 10 + (c - '0');
+            }
+            return new Slot(prefix + BUCKET_INFIX + (id / bucketSize), key.substring(prefix.length()));
+        }
+        return null;
+    }
+
+    private static class Slot {
+        private final String bucket;
+        private final String field;
+
+        private Slot(String bucket, String field) {
+            this.bucket = bucket;
+            this.field = field;
+        }
+    }
+}
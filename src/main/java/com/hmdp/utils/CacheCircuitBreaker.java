@@ -0,0 +1,178 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheBreakerProp;
+import io.lettuce.core.RedisCommandTimeoutException;
+import io.lettuce.core.RedisConnectionException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 缓存熔断器，Redis不可用时让读请求降级而不是全部失败
+ * 1. 连续出现Redis异常(连接失败、命令超时等)达到阈值后打开
+ * 2. 打开期间读请求不再访问Redis，优先返回进程内最后一次读到的值，没有再查询数据库
+ * 3. 打开期间查询数据库要先获取许可，限制并发，拿不到许可直接返回繁忙，保护MySQL
+ * 4. 打开一段时间后定时PING Redis，成功就自动关闭
+ */
+@Slf4j
+@Component
+public class CacheCircuitBreaker {
+
+    private final CacheBreakerProp prop;
+
+    private final StringRedisTemplate redisTemplate;
+
+    private final Semaphore dbPermits;
+
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+    private volatile boolean open = false;
+
+    /**
+     * 打开的时间点，至少保持openMillis再开始探测
+     */
+    private volatile long openedAt = 0;
+
+    private final LongAdder openCount = new LongAdder();
+    private final LongAdder degradedCount = new LongAdder();
+    private final LongAdder dbRejectedCount = new LongAdder();
+
+    public CacheCircuitBreaker(CacheBreakerProp prop, StringRedisTemplate redisTemplate) {
+        this.prop = prop;
+        this.redisTemplate = redisTemplate;
+        this.dbPermits = new Semaphore(prop.getDbConcurrency());
+    }
+
+    /**
+     * 是否可以访问Redis
+     */
+    public boolean allowRequest() {
+        return !open;
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    public void onSuccess() {
+        if (consecutiveFailures.get() != 0) {
+            consecutiveFailures.set(0);
+        }
+    }
+
+    /**
+     * 记录一次Redis异常，连续失败达到阈值时打开
+     */
+    public void onFailure(Throwable e) {
+        if (!prop.isEnabled()) {
+            return;
+        }
+        if (consecutiveFailures.incrementAndGet() >= prop.getFailureThreshold() && !open) {
+            synchronized (this) {
+                if (!open) {
+                    open = true;
+                    openedAt = System.currentTimeMillis();
+                    openCount.increment();
+                    log.error("Redis连续{}次异常，缓存熔断器打开，读请求降级：{}", consecutiveFailures.get(), e.toString());
+                }
+            }
+        }
+    }
+
+    /**
+     * 记录一次降级处理的请求
+     */
+    public void onDegraded() {
+        degradedCount.increment();
+    }
+
+    /**
+     * 熔断期间查询数据库，同时查询的请求数有上限
+     * @param loader 查询数据库
+     * @return 查询结果
+     */
+    public <T> T callDb(Supplier<T> loader) {
+        boolean acquired;
+        try {
+            acquired = dbPermits.tryAcquire(prop.getDbWaitMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+        if (!acquired) {
+            dbRejectedCount.increment();
+            throw new RuntimeException("缓存服务不可用，数据库繁忙，请稍后再试");
+        }
+        try {
+            return loader.get();
+        } finally {
+            dbPermits.release();
+        }
+    }
+
+    /**
+     * 打开一段时间后探测Redis，PING成功自动关闭
+     */
+    @Scheduled(fixedDelay = 1000)
+    public void probe() {
+        if (!open || System.currentTimeMillis() - openedAt < prop.getOpenMillis()) {
+            return;
+        }
+        try {
+            String pong = redisTemplate.execute((RedisCallback<String>) RedisConnection::ping);
+            if ("PONG".equalsIgnoreCase(pong)) {
+                consecutiveFailures.set(0);
+                open = false;
+                log.info("Redis已恢复，缓存熔断器关闭");
+            }
+        } catch (Exception e) {
+            openedAt = System.currentTimeMillis();
+            log.warn("Redis仍不可用：{}", e.toString());
+        }
+    }
+
+    /**
+     * 判断是否是Redis不可用的异常：只有连接失败和命令超时
+     * 脚本错误、WRONGTYPE 等命令的错误回复(RedisSystemException、RedisCommandExecutionException)只和某个key有关，
+     * 不计入，否则一个错误的key就会让所有请求降级查询数据库；数据库和业务的异常也不计入
+     */
+    public static boolean isRedisFailure(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof RedisConnectionFailureException
+                    || t instanceof QueryTimeoutException
+                    || t instanceof RedisConnectionException
+                    || t instanceof RedisCommandTimeoutException
+                    || t instanceof IOException) {
+                return true;
+            }
+            if (t.getCause() == t) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    public long getOpenCount() {
+        return openCount.sum();
+    }
+
+    public long getDegradedCount() {
+        return degradedCount.sum();
+    }
+
+    public long getDbRejectedCount() {
+        return dbRejectedCount.sum();
+    }
+}
@@ -1,18 +1,31 @@
 package com.hmdp.utils;
 
+import cn.hutool.core.lang.TypeReference;
 import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
+import cn.hutool.core.util.TypeUtil;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
+import com.hmdp.config.CacheRebuildProp;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
-import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.lang.reflect.Type;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -30,24 +43,86 @@ public class CacheClient {
 
     private final StringRedisTemplate redisTemplate;
 
-    //创建10个线程的线程池
-    // ExecutorService是Java提供的线程池，也就是说，每次我们需要使用线程的时候，可以通过ExecutorService获得线程。
-    public static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    //进程内的一级缓存
+    private final LocalCache localCache;
 
-    public CacheClient(StringRedisTemplate redisTemplate) {
+    //集群内一级缓存的失效广播
+    private final CacheInvalidationBus invalidationBus;
+
+    //实体id的布隆过滤器
+    private final IdBloomFilter idBloomFilter;
+
+    //缓存值的编解码
+    private final CacheCodecs codecs;
+
+    //快过期的key提前异步刷新
+    private final CacheRefreshAhead refreshAhead;
+
+    //热点key检测，热点key写入本地短期副本
+    private final HotKeyDetector hotKeyDetector;
+
+    //按key前缀统计的指标
+    private final CacheMetrics metrics;
+
+    //缓存重建的线程池：有界队列，同一个key只重建一次，超时中断
+    private final CacheRebuildExecutor rebuildExecutor;
+
+    //读取Redis，开启客户端缓存(CLIENT TRACKING)时优先返回本地的值
+    private final RedisTrackingCache trackingCache;
+
+    //Redis不可用时的熔断降级
+    private final CacheCircuitBreaker breaker;
+
+    //数量很多的小对象按id范围放到hash里，减少Redis的key开销
+    private final CacheBucketLayout bucketLayout;
+
+    //同一个key的重建请求在JVM内合并
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    //重建等待超时后直接查询数据库时，SingleFlight使用的key后缀，和重建任务区分开
+    private static final String FALLBACK_FLIGHT_SUFFIX = "#fallback";
+
+    //等待互斥锁和重建结果的时间
+    private final CacheRebuildProp rebuildProp;
+
+    //概率提前过期的系数，越大越早重建，1.0是论文推荐的默认值
+    private static final double XFETCH_BETA = 1.0;
+
+    public CacheClient(StringRedisTemplate redisTemplate, LocalCache localCache,
+                       CacheInvalidationBus invalidationBus, IdBloomFilter idBloomFilter, CacheCodecs codecs,
+                       CacheRefreshAhead refreshAhead, HotKeyDetector hotKeyDetector, CacheMetrics metrics,
+                       CacheRebuildExecutor rebuildExecutor, RedisTrackingCache trackingCache,
+                       CacheCircuitBreaker breaker, CacheBucketLayout bucketLayout, CacheRebuildProp rebuildProp) {
         this.redisTemplate = redisTemplate;
+        this.localCache = localCache;
+        this.invalidationBus = invalidationBus;
+        this.idBloomFilter = idBloomFilter;
+        this.codecs = codecs;
+        this.refreshAhead = refreshAhead;
+        this.hotKeyDetector = hotKeyDetector;
+        this.metrics = metrics;
+        this.rebuildExecutor = rebuildExecutor;
+        this.trackingCache = trackingCache;
+        this.breaker = breaker;
+        this.bucketLayout = bucketLayout;
+        this.rebuildProp = rebuildProp;
     }
 
 
     /**
      * 将任意Java对象序列化为json并存储在string类型的key中，并且可以设置TTL过期时间
+     * 写入不需要类型参数，编码按对象本身选择；同一个类的对象列表在二进制编码下写成紧凑的列表格式
      * @param key key值
      * @param value json
      * @param time 过期时间
      * @param unit 时间单位
      */
     public void set(String key, Object value, Long time, TimeUnit unit){
-        redisTemplate.opsForValue().set(key,JSONUtil.toJsonStr(value),time,unit);
+        write(key, codecs.encode(key, value), time, unit);
+        //其它节点的本地缓存还是旧数据，通知它们重新读取
+        invalidationBus.publish(key);
+        localCache.put(key, value);
+        promoteIfHot(key, value);
     }
 
     /**
@@ -58,11 +133,182 @@ public class CacheClient {
      * @param unit
      */
     public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit){
-        RedisData redisData = new RedisData();
-        //写入数据
-        redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
-        redisTemplate.opsForValue().set(key,JSONUtil.toJsonStr(redisData),time,unit);
+        long expireMillis = System.currentTimeMillis() + unit.toMillis(time);
+        write(key, encodeWithLogicalExpire(key, value, expireMillis), time, unit);
+        //其它节点的本地缓存还是旧数据，通知它们重新读取
+        invalidationBus.publish(key);
+        CacheEnvelope envelope = new CacheEnvelope(expireMillis, value);
+        localCache.put(key, envelope);
+        promoteIfHot(key, envelope);
+    }
+
+    /**
+     * 编码为带逻辑过期时间的格式：'E' + 过期时间(epoch毫秒) + '|' + 数据
+     * @param key 完整的key，用来选择编码
+     * @param value 数据
+     * @param expireMillis 逻辑过期时间(epoch毫秒)
+     * @return 写入Redis的字符串
+     */
+    public String encodeWithLogicalExpire(String key, Object value, long expireMillis){
+        return CacheEnvelope.wrap(expireMillis, codecs.encode(key, value));
+    }
+
+    /**
+     * 给TTL加上随机浮动，避免同一批写入的key同时过期
+     * @param seconds TTL(秒)
+     * @param ratio 浮动比例，例如0.1表示在±10%之间随机
+     * @return 浮动后的TTL(秒)，至少为1
+     */
+    public static long jitterSeconds(long seconds, double ratio) {
+        long range = (long) (seconds * ratio);
+        if (range <= 0) {
+            return Math.max(1, seconds);
+        }
+        return Math.max(1, seconds + ThreadLocalRandom.current().nextLong(-range, range + 1));
+    }
+
+    /**
+     * 删除缓存，同时删除Redis和所有节点的本地缓存
+     * @param key
+     */
+    public void delete(String key){
+        remove(key);
+        invalidationBus.publish(key);
+    }
+
+    /**
+     * 调用方绕过CacheClient直接写入Redis之后调用(例如管道批量写入、逻辑过期的预热)：
+     * 删除本节点客户端缓存中的旧值，并通知所有节点删除本地缓存，不会删除Redis中的值
+     * @param key 完整的key
+     */
+    public void invalidate(String key){
+        trackingCache.invalidate(key);
+        invalidationBus.publish(key);
+    }
+
+    /**
+     * 直接读取Redis中的值并解码，不经过本地缓存、不回源、不记录指标，用于一致性校验
+     * @param keys 完整的key
+     * @param type 对象类型
+     * @return 顺序和keys一致，不存在、空值或者解码失败为null；逻辑过期格式返回其中的数据
+     * @param <R> 对象类型
+     */
+    public <R> List<R> peek(List<String> keys, Type type) {
+        List<String> texts = readAll(keys);
+        List<R> result = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            String text = texts == null ? null : texts.get(i);
+            R r = null;
+            if (StrUtil.isNotBlank(text)) {
+                r = CacheEnvelope.isEnvelope(text) ? cast(decodeLogicalExpire(text, type).getData())
+                        : codecs.decode(text, type);
+            }
+            result.add(r);
+        }
+        return result;
+    }
+
+    /**
+     * 读取Redis中的值，分桶存储的key读取对应的hash字段，其它key经过客户端缓存读取
+     */
+    private String read(String key) {
+        return bucketLayout.handles(key) ? bucketLayout.get(key) : trackingCache.get(key);
+    }
+
+    /**
+     * 读取Redis中的值和剩余TTL
+     */
+    private RedisTrackingCache.Entry<String> readWithTtl(String key) {
+        return bucketLayout.handles(key) ? bucketLayout.getWithTtl(key) : trackingCache.getWithTtl(key);
+    }
+
+    /**
+     * 批量读取，顺序和keys一致；分桶存储的key和普通key分开查询
+     */
+    private List<String> readAll(List<String> keys) {
+        List<String> bucketKeys = new ArrayList<>();
+        List<String> plainKeys = new ArrayList<>();
+        for (String key : keys) {
+            (bucketLayout.handles(key) ? bucketKeys : plainKeys).add(key);
+        }
+        if (bucketKeys.isEmpty()) {
+            return trackingCache.multiGet(keys);
+        }
+        if (plainKeys.isEmpty()) {
+            return bucketLayout.multiGet(keys);
+        }
+        Map<String, String> values = new HashMap<>(keys.size() * 2);
+        List<String> bucketValues = bucketLayout.multiGet(bucketKeys);
+        for (int i = 0; i < bucketKeys.size(); i++) {
+            values.put(bucketKeys.get(i), bucketValues.get(i));
+        }
+        List<String> plainValues = trackingCache.multiGet(plainKeys);
+        for (int i = 0; i < plainKeys.size(); i++) {
+            values.put(plainKeys.get(i), plainValues == null ? null : plainValues.get(i));
+        }
+        List<String> result = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            result.add(values.get(key));
+        }
+        return result;
+    }
+
+    /**
+     * 从快照恢复的本地缓存第一次命中时，在后台重新读取Redis校验，期间继续返回恢复的值
+     * 使用提前刷新的线程池，队列满时不校验，条目在本地缓存过期后自然重新读取
+     */
+    private void revalidateIfRestored(String key) {
+        Type type = localCache.takeRestored(key);
+        if (type == null) {
+            return;
+        }
+        refreshAhead.refresh(key, () -> {
+            String text = read(key);
+            Object value = null;
+            if (StrUtil.isNotBlank(text)) {
+                value = CacheEnvelope.isEnvelope(text) ? decodeLogicalExpire(text, type) : codecs.decode(text, type);
+            }
+            if (value == null || value instanceof CacheEnvelope && ((CacheEnvelope) value).getData() == null) {
+                localCache.invalidate(key);
+            } else {
+                localCache.put(key, value);
+            }
+        });
+    }
+
+    /**
+     * 写入Redis，并让本节点客户端缓存中的旧值失效
+     */
+    private void write(String key, String value, long time, TimeUnit unit) {
+        if (bucketLayout.handles(key)) {
+            bucketLayout.set(key, value, unit.toMillis(time));
+        } else {
+            redisTemplate.opsForValue().set(key, value, time, unit);
+        }
+        trackingCache.invalidate(key);
+    }
+
+    /**
+     * 在pipeline中写入Redis，调用方负责让客户端缓存失效
+     */
+    private void write(StringRedisConnection connection, String key, String value, long seconds) {
+        if (bucketLayout.handles(key)) {
+            bucketLayout.set(connection, key, value, TimeUnit.SECONDS.toMillis(seconds));
+        } else {
+            connection.setEx(key, seconds, value);
+        }
+    }
+
+    /**
+     * 删除Redis中的值，并让本节点客户端缓存中的旧值失效
+     */
+    private void remove(String key) {
+        if (bucketLayout.handles(key)) {
+            bucketLayout.delete(key);
+        } else {
+            redisTemplate.delete(key);
+        }
+        trackingCache.invalidate(key);
     }
 
 
@@ -104,65 +350,99 @@ public class CacheClient {
      * @param <R>  对象类型
      * @param <T> id类型
      */
-    public <R,T> R queryWithLogicalExpire(String keyPrefix, T id,Class<R> type,Function<T,R> dbFallback,Long time, TimeUnit unit){
-        String key = keyPrefix + id;
+    public <R,T> R queryWithLogicalExpire(String keyPrefix, T id,Type type,Function<T,R> dbFallback,Long time, TimeUnit unit){
+        return guarded(keyPrefix, id, type, dbFallback,
+                () -> doQueryWithLogicalExpire(keyPrefix, id, type, dbFallback, time, unit));
+    }
+
+    /**
+     * 同上，类型为Class
+     */
+    public <R, T> R queryWithLogicalExpire(
+            String keyPrefix, T id, Class<R> type, Function<T, R> dbFallback, Long time, TimeUnit unit) {
+        return queryWithLogicalExpire(keyPrefix, id, (Type) type, dbFallback, time, unit);
+    }
 
-        //1.从redis中查询商铺缓存
-        String shopJson = redisTemplate.opsForValue().get(key);
+    /**
+     * 同上，类型为TypeReference，用于集合等泛型，例如 new TypeReference&lt;List&lt;ShopType&gt;&gt;() {}
+     */
+    public <R, T> R queryWithLogicalExpire(
+            String keyPrefix, T id, TypeReference<R> type, Function<T, R> dbFallback, Long time, TimeUnit unit) {
+        return queryWithLogicalExpire(keyPrefix, id, type.getType(), dbFallback, time, unit);
+    }
 
-        //2.判断是否命中
-        if (StrUtil.isBlank((shopJson))){
-            //3.不命中，直接返回null
+    private <R,T> R doQueryWithLogicalExpire(String keyPrefix, T id,Type type,Function<T,R> dbFallback,Long time, TimeUnit unit){
+        //布隆过滤器判断id一定不存在，直接返回
+        if (!idBloomFilter.mightContain(keyPrefix, id)) {
+            metrics.bloomReject(keyPrefix);
             return null;
         }
+        String key = keyPrefix + id;
+        hotKeyDetector.record(keyPrefix, key);
+
+        //0.先查本地缓存，本地缓存中存的是数据已经解码好的CacheEnvelope
+        CacheEnvelope envelope = null;
+        Object local = localCache.get(key);
+        if (local instanceof CacheEnvelope && isInstance(type, ((CacheEnvelope) local).getData())) {
+            envelope = (CacheEnvelope) local;
+            metrics.l1Hit(keyPrefix);
+            revalidateIfRestored(key);
+        }
+        if (envelope == null) {
+            //1.从redis中查询商铺缓存
+            String shopJson = read(key);
 
-        //4.命中，先把json反系列化为对象
-        RedisData redisData = JSONUtil.toBean(shopJson, RedisData.class);
-        //本质是JSONObject类型
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(),type);
-        LocalDateTime expireTime = redisData.getExpireTime();
+            //2.判断是否命中
+            if (StrUtil.isBlank((shopJson))){
+                //3.不命中，直接返回null
+                metrics.miss(keyPrefix);
+                return null;
+            }
+
+            //4.命中，解析过期时间和数据
+            metrics.redisHit(keyPrefix);
+            envelope = decodeLogicalExpire(shopJson, type);
+            if (envelope.getData() != null) {
+                localCache.put(key, envelope);
+                localCache.putLastKnown(key, envelope.getData());
+                promoteIfHot(key, envelope);
+            }
+        }
+        R r = cast(envelope.getData());
 
         //5.判断是否过期
-        //isAfter() 在.....之后
-        if (expireTime.isAfter(LocalDateTime.now())) {
+        if (!envelope.isExpired(System.currentTimeMillis())) {
             //5.1 未过期，直接返回店铺信息
             return r;
         }
         //5.2 已过期，需要缓存重建
+        //本节点已经在重建，不用再去竞争锁
+        if (rebuildExecutor.isRebuilding(key)) {
+            return r;
+        }
         //6.缓存重建
         //6.1 获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
+        String lockKey = lockKey(keyPrefix, key);
         boolean isLock = tryLock(lockKey);
+        metrics.lock(keyPrefix, isLock);
 
         //6.2 判断是否获取锁成功
         if (isLock){
-            //需要监测缓存是否过期
+            //6.3 成功，提交到重建线程池，任务结束或者被拒绝后释放锁
+            rebuildExecutor.submit(key, () -> {
+                //查询数据库
+                metrics.rebuild(keyPrefix);
+                long begin = System.nanoTime();
+                R r1 = dbFallback.apply(id);
+                metrics.dbFallback(keyPrefix, System.nanoTime() - begin);
 
-            //过期
-            //6.3 成功，开启独立线程，实现缓存重建
-            CACHE_REBUILD_EXECUTOR.submit(()->{
-                try {
-                     /**
-                     * Applies this function to the given argument.
-                     *
-                     * @param t the function argument
-                     * @return the function result
-                     *     R apply(T t);
-                     */
-                    //查询数据库
-                    R r1 = dbFallback.apply(id);
-
-                    //写入Redis
+                //写入Redis，数据已经不存在了直接删除
+                if (r1 == null) {
+                    this.delete(key);
+                } else {
                     this.setWithLogicalExpire(key,r1,time,unit);
-                }catch (Exception e){
-                    throw new RuntimeException(e);
-
-                }finally {
-                    //释放锁
-                    this.unLock(lockKey);
                 }
-            });
-
+            }, () -> this.unLock(lockKey));
         }
         //6.4 返回过期的商铺信息
 
@@ -181,31 +461,75 @@ public class CacheClient {
      * @param <R> 对象
      * @param <T> id类型
      */
-    public <R,T> R queryWithPassThrough(String keyPrefix, T id, Class<R> type, Function<T,R> dbFallback,Long time, TimeUnit unit){
+    public <R,T> R queryWithPassThrough(String keyPrefix, T id, Type type, Function<T,R> dbFallback,Long time, TimeUnit unit){
+        return guarded(keyPrefix, id, type, dbFallback,
+                () -> doQueryWithPassThrough(keyPrefix, id, type, dbFallback, time, unit));
+    }
+
+    /**
+     * 同上，类型为Class
+     */
+    public <R, T> R queryWithPassThrough(
+            String keyPrefix, T id, Class<R> type, Function<T, R> dbFallback, Long time, TimeUnit unit) {
+        return queryWithPassThrough(keyPrefix, id, (Type) type, dbFallback, time, unit);
+    }
+
+    /**
+     * 同上，类型为TypeReference，用于集合等泛型，例如 new TypeReference&lt;List&lt;ShopType&gt;&gt;() {}
+     */
+    public <R, T> R queryWithPassThrough(
+            String keyPrefix, T id, TypeReference<R> type, Function<T, R> dbFallback, Long time, TimeUnit unit) {
+        return queryWithPassThrough(keyPrefix, id, type.getType(), dbFallback, time, unit);
+    }
+
+    private <R,T> R doQueryWithPassThrough(String keyPrefix, T id, Type type, Function<T,R> dbFallback,Long time, TimeUnit unit){
 
+        //布隆过滤器判断id一定不存在，直接返回，不再访问Redis和数据库
+        if (!idBloomFilter.mightContain(keyPrefix, id)) {
+            metrics.bloomReject(keyPrefix);
+            return null;
+        }
         String key = keyPrefix + id;
-        //1.从redis中查询商铺缓存
-        String json = redisTemplate.opsForValue().get(key);
+        hotKeyDetector.record(keyPrefix, key);
+        //0.先查本地缓存
+        Object local = localCache.get(key);
+        if (isInstance(type, local)) {
+            metrics.l1Hit(keyPrefix);
+            revalidateIfRestored(key);
+            return cast(local);
+        }
+        //1.从redis中查询商铺缓存，快过期时提前异步刷新
+        String json = getWithRefreshAhead(key, id, dbFallback, time, unit);
 
         //2.判断是否存在
         if (StrUtil.isNotBlank((json))){
-            //3.存在，直接返回
-            return JSONUtil.toBean(json, type);
+            //3.存在，写入本地缓存后返回
+            R r = decodeAndCache(key, json, type);
+            if (r != null) {
+                metrics.redisHit(keyPrefix);
+                return r;
+            }
+            //格式不兼容，当作未命中
+            json = null;
         }
 
         //判断命中的是否是空值
         if (json != null){
             //返回一个错误信息
+            metrics.nullHit(keyPrefix);
             return null;
         }
 
         //4.不存在，根据id查询数据库
+        metrics.miss(keyPrefix);
+        long begin = System.nanoTime();
         R r = dbFallback.apply(id);
+        metrics.dbFallback(keyPrefix, System.nanoTime() - begin);
 
         //5.不存在，返回错误
         if (r == null) {
             //将空值写入Redis   过期时间两分钟
-            redisTemplate.opsForValue().set(key,"",CACHE_NULL_TTL, TimeUnit.MINUTES);
+            write(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
             //返回错误信息
             return null;
         }
@@ -217,8 +541,158 @@ public class CacheClient {
     }
 
 
+    /**
+     * 批量查询，按ids的顺序返回，不存在的id直接跳过
+     * 先查本地缓存，再用一次MGET查询Redis，剩下未命中的用一次数据库IN查询，
+     * 最后用pipeline批量回写Redis(不存在的id写入空值)
+     * @param keyPrefix key前缀
+     * @param ids 有序的id列表
+     * @param type 对象类型
+     * @param idGetter 从对象中获取id的函数
+     * @param batchDbFallback 批量查询数据库的函数，例如 this::listByIds
+     * @param time 过期时间
+     * @param unit 时间单位
+     * @return 按ids顺序排列的结果
+     * @param <R> 对象类型
+     * @param <ID> id类型
+     */
+    public <R, ID> List<R> queryBatch(String keyPrefix, List<ID> ids, Class<R> type, Function<R, ID> idGetter,
+                                      Function<List<ID>, ? extends Collection<R>> batchDbFallback, Long time, TimeUnit unit) {
+        return queryBatch(keyPrefix, ids, (Type) type, idGetter, batchDbFallback, time, unit);
+    }
+
+    /**
+     * 同上，类型为TypeReference，用于泛型
+     */
+    public <R, ID> List<R> queryBatch(String keyPrefix, List<ID> ids, TypeReference<R> type, Function<R, ID> idGetter,
+                                      Function<List<ID>, ? extends Collection<R>> batchDbFallback, Long time, TimeUnit unit) {
+        return queryBatch(keyPrefix, ids, type.getType(), idGetter, batchDbFallback, time, unit);
+    }
+
+    /**
+     * 同上，类型为Type
+     */
+    public <R, ID> List<R> queryBatch(String keyPrefix, List<ID> ids, Type type, Function<R, ID> idGetter,
+                                      Function<List<ID>, ? extends Collection<R>> batchDbFallback, Long time, TimeUnit unit) {
+        if (ids == null || ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        if (!breaker.allowRequest()) {
+            return degradedBatch(keyPrefix, ids, type, idGetter, batchDbFallback);
+        }
+        try {
+            List<R> result = doQueryBatch(keyPrefix, ids, type, idGetter, batchDbFallback, time, unit);
+            breaker.onSuccess();
+            return result;
+        } catch (RuntimeException e) {
+            if (!CacheCircuitBreaker.isRedisFailure(e)) {
+                throw e;
+            }
+            breaker.onFailure(e);
+            return degradedBatch(keyPrefix, ids, type, idGetter, batchDbFallback);
+        }
+    }
+
+    private <R, ID> List<R> doQueryBatch(String keyPrefix, List<ID> ids, Type type, Function<R, ID> idGetter,
+                                         Function<List<ID>, ? extends Collection<R>> batchDbFallback, Long time, TimeUnit unit) {
+        int size = ids.size();
+        Object[] values = new Object[size];
+        //1.布隆过滤器和本地缓存
+        List<Integer> redisIndexes = new ArrayList<>(size);
+        List<String> redisKeys = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            ID id = ids.get(i);
+            if (!idBloomFilter.mightContain(keyPrefix, id)) {
+                continue;
+            }
+            String key = keyPrefix + id;
+            hotKeyDetector.record(keyPrefix, key);
+            Object local = localCache.get(key);
+            if (isInstance(type, local)) {
+                metrics.l1Hit(keyPrefix);
+                revalidateIfRestored(key);
+                values[i] = local;
+                continue;
+            }
+            redisIndexes.add(i);
+            redisKeys.add(key);
+        }
+        if (!redisKeys.isEmpty()) {
+            //2.一次MGET查询Redis
+            List<String> jsons = readAll(redisKeys);
+            List<Integer> missIndexes = new ArrayList<>();
+            for (int j = 0; j < redisKeys.size(); j++) {
+                String json = jsons == null ? null : jsons.get(j);
+                R r = StrUtil.isNotBlank(json) ? decodeAndCache(redisKeys.get(j), json, type) : null;
+                if (r != null) {
+                    metrics.redisHit(keyPrefix);
+                    values[redisIndexes.get(j)] = r;
+                } else if (json == null || StrUtil.isNotBlank(json)) {
+                    //未命中或者格式不兼容(不是空值)，需要查数据库
+                    metrics.miss(keyPrefix);
+                    missIndexes.add(redisIndexes.get(j));
+                } else {
+                    metrics.nullHit(keyPrefix);
+                }
+            }
+            if (!missIndexes.isEmpty()) {
+                //3.一次IN查询数据库
+                List<ID> missIds = new ArrayList<>(missIndexes.size());
+                for (Integer index : missIndexes) {
+                    missIds.add(ids.get(index));
+                }
+                long begin = System.nanoTime();
+                Collection<R> rows = batchDbFallback.apply(missIds);
+                metrics.dbFallback(keyPrefix, System.nanoTime() - begin);
+                Map<String, R> rowMap = new HashMap<>(rows == null ? 0 : rows.size() * 2);
+                if (rows != null) {
+                    for (R row : rows) {
+                        rowMap.put(String.valueOf(idGetter.apply(row)), row);
+                    }
+                }
+                //4.pipeline批量回写Redis
+                long seconds = unit.toSeconds(time);
+                long nullSeconds = TimeUnit.MINUTES.toSeconds(CACHE_NULL_TTL);
+                redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection stringConnection = (StringRedisConnection) connection;
+                    for (Integer index : missIndexes) {
+                        String key = keyPrefix + ids.get(index);
+                        R r = rowMap.get(String.valueOf(ids.get(index)));
+                        if (r == null) {
+                            write(stringConnection, key, "", nullSeconds);
+                        } else {
+                            write(stringConnection, key, codecs.encode(key, r), seconds);
+                        }
+                    }
+                    return null;
+                });
+                for (Integer index : missIndexes) {
+                    trackingCache.invalidate(keyPrefix + ids.get(index));
+                    R r = rowMap.get(String.valueOf(ids.get(index)));
+                    if (r != null) {
+                        String key = keyPrefix + ids.get(index);
+                        localCache.put(key, r);
+                        localCache.putLastKnown(key, r);
+                        promoteIfHot(key, r);
+                        values[index] = r;
+                    }
+                }
+            }
+        }
+        //5.按ids的顺序组装结果
+        List<R> result = new ArrayList<>(size);
+        for (Object value : values) {
+            if (value != null) {
+                result.add(cast(value));
+            }
+        }
+        return result;
+    }
+
     /**
      * 利用互斥锁解决缓存击穿
+     * 同一个节点内先用SingleFlight合并请求，只有抢到执行权的线程才去竞争Redis互斥锁，
+     * 其它线程等待同一个结果，等待超时返回最后一次读到的旧值
      * @param keyPrefix key前缀
      * @param id 业务id
      * @param type 实体类型
@@ -229,52 +703,486 @@ public class CacheClient {
      * @param <R> 业务实体
      * @param <ID> id的类型
      */
+    public <R, ID> R queryWithMutex(
+            String keyPrefix, ID id, Type type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        return guarded(keyPrefix, id, type, dbFallback,
+                () -> doQueryWithMutex(keyPrefix, id, type, dbFallback, time, unit));
+    }
+
+    /**
+     * 同上，类型为Class
+     */
     public <R, ID> R queryWithMutex(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        return queryWithMutex(keyPrefix, id, (Type) type, dbFallback, time, unit);
+    }
+
+    /**
+     * 同上，类型为TypeReference，用于集合等泛型，例如 new TypeReference&lt;List&lt;ShopType&gt;&gt;() {}
+     */
+    public <R, ID> R queryWithMutex(
+            String keyPrefix, ID id, TypeReference<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        return queryWithMutex(keyPrefix, id, type.getType(), dbFallback, time, unit);
+    }
+
+    private <R, ID> R doQueryWithMutex(
+            String keyPrefix, ID id, Type type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        // 布隆过滤器判断id一定不存在，直接返回
+        if (!idBloomFilter.mightContain(keyPrefix, id)) {
+            metrics.bloomReject(keyPrefix);
+            return null;
+        }
         String key = keyPrefix + id;
-        // 1.从redis查询商铺缓存
-        String shopJson = redisTemplate.opsForValue().get(key);
+        hotKeyDetector.record(keyPrefix, key);
+        // 0.先查本地缓存
+        Object local = localCache.get(key);
+        if (isInstance(type, local)) {
+            metrics.l1Hit(keyPrefix);
+            revalidateIfRestored(key);
+            return cast(local);
+        }
+        // 1.从redis查询商铺缓存，快过期时提前异步刷新
+        String shopJson = getWithRefreshAhead(key, id, dbFallback, time, unit);
         // 2.判断是否存在
         if (StrUtil.isNotBlank(shopJson)) {
-            // 3.存在，直接返回
-            return JSONUtil.toBean(shopJson, type);
+            // 3.存在，写入本地缓存后返回
+            R r = decodeAndCache(key, shopJson, type);
+            if (r != null) {
+                metrics.redisHit(keyPrefix);
+                return r;
+            }
+            // 格式不兼容，当作未命中
+            shopJson = null;
         }
         // 判断命中的是否是空值
         if (shopJson != null) {
             // 返回一个错误信息
+            metrics.nullHit(keyPrefix);
+            return null;
+        }
+        metrics.miss(keyPrefix);
+
+        // 4.实现缓存重建，同一个key在本节点只有一个线程执行
+        try {
+            return singleFlight.execute(key,
+                    () -> rebuildWithMutex(keyPrefix, key, id, type, dbFallback, time, unit),
+                    rebuildProp.singleFlightWaitMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // 4.1 等待超时，返回旧值或者直接查询
+            return readAfterWaitTimeout(key, id, type, dbFallback);
+        }
+    }
+
+    /**
+     * 利用概率提前过期(XFetch)解决缓存击穿
+     * 值和上一次重建的耗时delta一起保存，每次读取时以 now - delta * beta * ln(rand) >= 过期时间 的概率提前重建，
+     * 越接近过期、重建越慢，提前重建的概率越大；重建在后台执行，当前请求返回现有的值
+     * 不需要互斥锁也不需要提前写入缓存，缓存不存在时同一个key在本节点只有一个线程查询数据库
+     * @param keyPrefix key前缀
+     * @param id 业务id
+     * @param type 实体类型
+     * @param dbFallback 业务函数
+     * @param time 过期时间
+     * @param unit 时间单位
+     * @return
+     * @param <R> 业务实体
+     * @param <ID> id的类型
+     */
+    public <R, ID> R queryWithProbabilisticExpire(
+            String keyPrefix, ID id, Type type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        return guarded(keyPrefix, id, type, dbFallback,
+                () -> doQueryWithProbabilisticExpire(keyPrefix, id, type, dbFallback, time, unit));
+    }
+
+    /**
+     * 同上，类型为Class
+     */
+    public <R, ID> R queryWithProbabilisticExpire(
+            String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        return queryWithProbabilisticExpire(keyPrefix, id, (Type) type, dbFallback, time, unit);
+    }
+
+    /**
+     * 同上，类型为TypeReference，用于集合等泛型，例如 new TypeReference&lt;List&lt;ShopType&gt;&gt;() {}
+     */
+    public <R, ID> R queryWithProbabilisticExpire(
+            String keyPrefix, ID id, TypeReference<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        return queryWithProbabilisticExpire(keyPrefix, id, type.getType(), dbFallback, time, unit);
+    }
+
+    private <R, ID> R doQueryWithProbabilisticExpire(
+            String keyPrefix, ID id, Type type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        // 布隆过滤器判断id一定不存在，直接返回
+        if (!idBloomFilter.mightContain(keyPrefix, id)) {
+            metrics.bloomReject(keyPrefix);
             return null;
         }
+        String key = keyPrefix + id;
+        hotKeyDetector.record(keyPrefix, key);
+        // 0.先查本地缓存，本地缓存中存的是数据已经解码好的CacheEnvelope
+        CacheEnvelope envelope = null;
+        Object local = localCache.get(key);
+        if (local instanceof CacheEnvelope && isInstance(type, ((CacheEnvelope) local).getData())) {
+            envelope = (CacheEnvelope) local;
+            metrics.l1Hit(keyPrefix);
+            revalidateIfRestored(key);
+        }
+        if (envelope == null) {
+            // 1.从redis查询
+            String json = read(key);
+            if (json != null && json.isEmpty()) {
+                // 命中空值
+                metrics.nullHit(keyPrefix);
+                return null;
+            }
+            if (json != null) {
+                envelope = decodeLogicalExpire(json, type);
+            }
+            if (envelope == null || envelope.getData() == null) {
+                // 2.不存在或者格式不兼容，同步查询数据库，本节点同一个key只有一个线程执行
+                metrics.miss(keyPrefix);
+                try {
+                    return singleFlight.execute(key,
+                            () -> recompute(keyPrefix, key, id, dbFallback, time, unit),
+                            rebuildProp.singleFlightWaitMillis(), TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    return readAfterWaitTimeout(key, id, type, dbFallback);
+                }
+            }
+            metrics.redisHit(keyPrefix);
+            localCache.put(key, envelope);
+            localCache.putLastKnown(key, envelope.getData());
+            promoteIfHot(key, envelope);
+        }
+        // 3.按概率决定是否提前重建，重建在后台执行
+        if (!rebuildExecutor.isRebuilding(key) && shouldRecomputeEarly(envelope)) {
+            rebuildExecutor.submit(key, () -> recompute(keyPrefix, key, id, dbFallback, time, unit), () -> { });
+        }
+        return cast(envelope.getData());
+    }
+
+    /**
+     * 熔断器打开时直接降级；Redis异常时记录失败并降级，其它异常照常抛出
+     */
+    private <R, ID> R guarded(String keyPrefix, ID id, Type type, Function<ID, R> dbFallback, Supplier<R> query) {
+        if (!breaker.allowRequest()) {
+            return degraded(keyPrefix, id, type, dbFallback);
+        }
+        try {
+            R r = query.get();
+            breaker.onSuccess();
+            return r;
+        } catch (RuntimeException e) {
+            if (!CacheCircuitBreaker.isRedisFailure(e)) {
+                throw e;
+            }
+            breaker.onFailure(e);
+            return degraded(keyPrefix, id, type, dbFallback);
+        }
+    }
 
-        // 4.实现缓存重建
-        // 4.1.获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        R r = null;
+    /**
+     * 等待本节点其它线程重建超时：有旧值返回旧值，否则直接读取Redis，Redis中也没有再查询数据库
+     * 查询数据库同样经过SingleFlight，同一个key本节点只有一个等待超时的线程查询，其它线程等待它的结果；
+     * 再次等待超时说明数据库很慢，返回null，不再增加数据库的压力
+     * 直接查询的结果不写入缓存，由正在重建的线程写入
+     */
+    private <R, ID> R readAfterWaitTimeout(String key, ID id, Type type, Function<ID, R> dbFallback) {
+        Object stale = localCache.getLastKnown(key);
+        if (isInstance(type, stale)) {
+            log.warn("缓存重建等待超时，返回旧值，key={}", key);
+            return cast(stale);
+        }
+        log.warn("缓存重建等待超时，直接查询，key={}", key);
+        String text = read(key);
+        if (text != null && text.isEmpty()) {
+            return null;
+        }
+        if (text != null) {
+            R r = CacheEnvelope.isEnvelope(text) ? cast(decodeLogicalExpire(text, type).getData())
+                    : codecs.decode(text, type);
+            if (r != null) {
+                return r;
+            }
+        }
         try {
-            boolean isLock = tryLock(lockKey);
-            // 4.2.判断是否获取成功
-            if (!isLock) {
-                // 4.3.获取锁失败，休眠并重试
+            return singleFlight.execute(key + FALLBACK_FLIGHT_SUFFIX, () -> dbFallback.apply(id),
+                    rebuildProp.singleFlightWaitMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            log.warn("缓存重建和直接查询都等待超时，返回null，key={}", key);
+            return null;
+        }
+    }
+
+    /**
+     * 降级读取：不访问Redis，先找本地缓存和最后一次读到的值，都没有再限流查询数据库
+     */
+    private <R, ID> R degraded(String keyPrefix, ID id, Type type, Function<ID, R> dbFallback) {
+        breaker.onDegraded();
+        if (!idBloomFilter.mightContain(keyPrefix, id)) {
+            return null;
+        }
+        String key = keyPrefix + id;
+        Object local = localCache.get(key);
+        if (local instanceof CacheEnvelope) {
+            local = ((CacheEnvelope) local).getData();
+        }
+        if (isInstance(type, local)) {
+            return cast(local);
+        }
+        Object stale = localCache.getLastKnown(key);
+        if (isInstance(type, stale)) {
+            return cast(stale);
+        }
+        R r = breaker.callDb(() -> dbFallback.apply(id));
+        localCache.putLastKnown(key, r);
+        return r;
+    }
+
+    /**
+     * 批量降级读取，本地没有的id一次限流查询数据库
+     */
+    private <R, ID> List<R> degradedBatch(String keyPrefix, List<ID> ids, Type type, Function<R, ID> idGetter,
+                                          Function<List<ID>, ? extends Collection<R>> batchDbFallback) {
+        breaker.onDegraded();
+        Object[] values = new Object[ids.size()];
+        List<ID> missIds = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i++) {
+            ID id = ids.get(i);
+            if (!idBloomFilter.mightContain(keyPrefix, id)) {
+                continue;
+            }
+            Object local = localCache.get(keyPrefix + id);
+            if (!isInstance(type, local)) {
+                local = localCache.getLastKnown(keyPrefix + id);
+            }
+            if (isInstance(type, local)) {
+                values[i] = local;
+            } else {
+                missIds.add(id);
+            }
+        }
+        if (!missIds.isEmpty()) {
+            Collection<R> rows = breaker.callDb(() -> batchDbFallback.apply(missIds));
+            Map<String, R> rowMap = new HashMap<>(rows == null ? 0 : rows.size() * 2);
+            if (rows != null) {
+                for (R row : rows) {
+                    String id = String.valueOf(idGetter.apply(row));
+                    rowMap.put(id, row);
+                    localCache.putLastKnown(keyPrefix + id, row);
+                }
+            }
+            for (int i = 0; i < ids.size(); i++) {
+                if (values[i] == null) {
+                    values[i] = rowMap.get(String.valueOf(ids.get(i)));
+                }
+            }
+        }
+        List<R> result = new ArrayList<>(ids.size());
+        for (Object value : values) {
+            if (value != null) {
+                result.add(cast(value));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * XFetch：now - delta * beta * ln(rand) >= expiry 时提前重建，rand在(0,1]之间
+     */
+    private boolean shouldRecomputeEarly(CacheEnvelope envelope) {
+        double rand = 1.0 - ThreadLocalRandom.current().nextDouble();
+        double gap = -envelope.getDeltaMillis() * XFETCH_BETA * Math.log(rand);
+        return System.currentTimeMillis() + gap >= envelope.getExpireMillis();
+    }
+
+    /**
+     * 查询数据库，和重建耗时一起写入缓存，不存在时写入空值
+     */
+    private <R, ID> R recompute(String keyPrefix, String key, ID id, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        metrics.rebuild(keyPrefix);
+        long begin = System.nanoTime();
+        R r = dbFallback.apply(id);
+        long nanos = System.nanoTime() - begin;
+        metrics.dbFallback(keyPrefix, nanos);
+        if (r == null) {
+            write(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+            invalidationBus.publish(key);
+            return null;
+        }
+        long deltaMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(nanos));
+        long expireMillis = System.currentTimeMillis() + unit.toMillis(time);
+        write(key, CacheEnvelope.wrap(expireMillis, deltaMillis, codecs.encode(key, r)), time, unit);
+        //其它节点的本地缓存还是旧数据，通知它们重新读取
+        invalidationBus.publish(key);
+        CacheEnvelope envelope = new CacheEnvelope(expireMillis, deltaMillis, r);
+        localCache.put(key, envelope);
+        localCache.putLastKnown(key, r);
+        promoteIfHot(key, envelope);
+        return r;
+    }
+
+    /**
+     * 获取Redis互斥锁重建缓存，没有获取到锁说明其它节点正在重建，循环等待它写入Redis
+     */
+    private <R, ID> R rebuildWithMutex(
+            String keyPrefix, String key, ID id, Type type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        String lockKey = lockKey(keyPrefix, key);
+        long deadline = System.currentTimeMillis() + rebuildProp.getMutexWaitMillis();
+        boolean isLock = tryLock(lockKey);
+        metrics.lock(keyPrefix, isLock);
+        while (!isLock) {
+            // 4.2 获取锁失败，休眠后检查其它节点是否已经重建完成
+            if (System.currentTimeMillis() > deadline) {
+                // 等待太久，持有锁的节点可能出了问题，直接查询数据库
+                log.warn("等待互斥锁超时，直接查询数据库，key={}", key);
+                return loadAndSet(keyPrefix, key, id, dbFallback, time, unit);
+            }
+            try {
                 Thread.sleep(50);
-                return queryWithMutex(keyPrefix, id, type, dbFallback, time, unit);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
             }
-            // 4.4.获取锁成功，根据id查询数据库
-            r = dbFallback.apply(id);
-            // 5.不存在，返回错误
-            if (r == null) {
-                // 将空值写入redis
-                redisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-                // 返回错误信息
+            String json = read(key);
+            if (StrUtil.isNotBlank(json)) {
+                R r = decodeAndCache(key, json, type);
+                if (r != null) {
+                    return r;
+                }
+            } else if (json != null) {
+                return null;
+            }
+            isLock = tryLock(lockKey);
+        }
+        try {
+            // 4.3 获取锁成功，再次检查缓存，可能在等锁期间已经重建好了
+            String json = read(key);
+            if (StrUtil.isNotBlank(json)) {
+                R r = decodeAndCache(key, json, type);
+                if (r != null) {
+                    return r;
+                }
+            } else if (json != null) {
                 return null;
             }
-            // 6.存在，写入redis
-            this.set(key, r, time, unit);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        }finally {
+            // 4.4 根据id查询数据库
+            return loadAndSet(keyPrefix, key, id, dbFallback, time, unit);
+        } finally {
             // 7.释放锁
             unLock(lockKey);
         }
-        // 8.返回
+    }
+
+    /**
+     * 查询Redis，开启提前刷新时用pipeline同时查询剩余TTL(一次往返)，
+     * 剩余TTL低于配置的比例时提交异步刷新，当前请求仍然返回读到的值
+     */
+    private <R, ID> String getWithRefreshAhead(String key, ID id, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        if (!refreshAhead.isEnabled()) {
+            return read(key);
+        }
+        RedisTrackingCache.Entry<String> entry = readWithTtl(key);
+        String json = entry.getValue();
+        if (StrUtil.isNotBlank(json) && refreshAhead.shouldRefresh(entry.getTtlMillis(), unit.toMillis(time))) {
+            refreshAhead.refresh(key, () -> {
+                R r = dbFallback.apply(id);
+                if (r == null) {
+                    write(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+                    //数据可能已经变化，通知其它节点
+                    invalidationBus.publish(key);
+                } else {
+                    this.set(key, r, time, unit);
+                    localCache.putLastKnown(key, r);
+                }
+            });
+        }
+        return json;
+    }
+
+    /**
+     * 解析带逻辑过期时间的值，先读头部的过期时间，数据直接解码为目标类型
+     * 兼容旧的RedisData格式({"expireTime":..., "data":{...}})
+     * 数据格式不兼容时data为null并且视为已过期，触发重建
+     */
+    private <R> CacheEnvelope decodeLogicalExpire(String text, Type type) {
+        if (CacheEnvelope.isEnvelope(text)) {
+            long expireMillis = CacheEnvelope.expireMillis(text);
+            R r = expireMillis < 0 ? null : codecs.decode(CacheEnvelope.payload(text), type);
+            return new CacheEnvelope(r == null ? 0 : expireMillis, CacheEnvelope.deltaMillis(text), r);
+        }
+        //旧格式，解析失败当作已过期，触发重建
+        try {
+            RedisData redisData = JSONUtil.toBean(text, RedisData.class);
+            R r = JSONUtil.toBean((JSONObject) redisData.getData(), type, true);
+            long expireMillis = redisData.getExpireTime() == null ? 0
+                    : redisData.getExpireTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            return new CacheEnvelope(expireMillis, r);
+        } catch (RuntimeException e) {
+            log.warn("逻辑过期缓存解析失败，当作已过期处理，type={}", type.getTypeName(), e);
+            return new CacheEnvelope(0, null);
+        }
+    }
+
+    /**
+     * 重建缓存的互斥锁，店铺沿用原来的 lock:shop:id，其它前缀按完整的key加锁，避免不同前缀的相同id互相等待
+     */
+    private static String lockKey(String keyPrefix, String key) {
+        return CACHE_SHOP_KEY.equals(keyPrefix) ? LOCK_SHOP_KEY + key.substring(keyPrefix.length()) : LOCK_CACHE_KEY + key;
+    }
+
+    /**
+     * 判断对象是否是该类型，泛型类型按原始类型判断(例如List&lt;Voucher&gt;按List)
+     */
+    private static boolean isInstance(Type type, Object value) {
+        return value != null && TypeUtil.getClass(type).isInstance(value);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <R> R cast(Object value) {
+        return (R) value;
+    }
+
+    /**
+     * 解码Redis中的值，并写入本地缓存
+     * @return 对象，格式不兼容返回null
+     */
+    private <R> R decodeAndCache(String key, String json, Type type) {
+        R r = codecs.decode(json, type);
+        if (r != null) {
+            localCache.put(key, r);
+            localCache.putLastKnown(key, r);
+            promoteIfHot(key, r);
+        }
+        return r;
+    }
+
+    /**
+     * 热点key写入本地短期副本，之后的读取不再访问Redis
+     */
+    private void promoteIfHot(String key, Object value) {
+        if (hotKeyDetector.isHot(key)) {
+            localCache.promote(key, value);
+        }
+    }
+
+    /**
+     * 查询数据库并写入缓存，不存在时写入空值
+     */
+    private <R, ID> R loadAndSet(String keyPrefix, String key, ID id, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        metrics.rebuild(keyPrefix);
+        long begin = System.nanoTime();
+        R r = dbFallback.apply(id);
+        metrics.dbFallback(keyPrefix, System.nanoTime() - begin);
+        // 5.不存在，返回错误
+        if (r == null) {
+            // 将空值写入redis
+            write(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+            return null;
+        }
+        // 6.存在，写入redis
+        this.set(key, r, time, unit);
+        localCache.putLastKnown(key, r);
         return r;
     }
 
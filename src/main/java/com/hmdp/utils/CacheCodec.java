@@ -0,0 +1,37 @@
+package com.hmdp.utils;
+
+import java.lang.reflect.Type;
+
+/**
+ * 缓存值的编解码器
+ * 编码后的字符串以marker()开头，读取时根据第一个字符选择解码器，这样同一个key前缀可以平滑切换编码格式
+ */
+public interface CacheCodec {
+
+    /**
+     * 格式标识，写在编码结果的第一个字符
+     * JSON为了兼容旧数据没有标识，返回0
+     */
+    char marker();
+
+    /**
+     * 是否支持编码这个对象，不支持时退回JSON
+     */
+    boolean supports(Object value);
+
+    /**
+     * 编码
+     * @param value 对象
+     * @return 包含格式标识的字符串
+     */
+    String encode(Object value);
+
+    /**
+     * 解码
+     * @param text 包含格式标识的字符串
+     * @param type 目标类型
+     * @return 对象，格式不兼容(例如类的字段变了)返回null，调用方当作未命中处理
+     * @param <R> 目标类型
+     */
+    <R> R decode(String text, Type type);
+}
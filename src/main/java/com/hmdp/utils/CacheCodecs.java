@@ -0,0 +1,111 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheCodecProp;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 缓存编解码器的注册中心
+ * 写入时按key前缀选择编码器；读取时按值的第一个字符选择解码器，没有格式标识的按JSON处理(兼容旧数据)
+ * 滚动升级时先保持json，所有节点升级完成后再把前缀切换为binary，新旧格式的数据可以同时存在
+ */
+@Slf4j
+@Component
+public class CacheCodecs {
+
+    private final JsonCacheCodec json = new JsonCacheCodec();
+
+    /**
+     * 名称 -> 编码器
+     */
+    private final Map<String, CacheCodec> byName = new HashMap<>();
+
+    /**
+     * 格式标识 -> 编码器
+     */
+    private final Map<Character, CacheCodec> byMarker = new HashMap<>();
+
+    /**
+     * 按前缀长度倒序排列，保证最长前缀优先匹配
+     */
+    private final List<Route> routes = new ArrayList<>();
+
+    private final CacheCodec defaultCodec;
+
+    public CacheCodecs(CacheCodecProp prop) {
+        register(JsonCacheCodec.NAME, json);
+        register(BinaryCacheCodec.NAME, new BinaryCacheCodec());
+        defaultCodec = codecOf(prop.getDefaultCodec());
+        for (CacheCodecProp.Spec spec : prop.getSpecs()) {
+            routes.add(new Route(spec.getPrefix(), codecOf(spec.getCodec())));
+            log.info("缓存前缀 {} 使用 {} 编码", spec.getPrefix(), spec.getCodec());
+        }
+        routes.sort(Comparator.comparingInt((Route r) -> r.prefix.length()).reversed());
+    }
+
+    private void register(String name, CacheCodec codec) {
+        byName.put(name, codec);
+        if (codec.marker() != 0) {
+            byMarker.put(codec.marker(), codec);
+        }
+    }
+
+    private CacheCodec codecOf(String name) {
+        CacheCodec codec = byName.get(name);
+        if (codec == null) {
+            throw new IllegalArgumentException("未知的缓存编码：" + name);
+        }
+        return codec;
+    }
+
+    /**
+     * 按key前缀选择编码器进行编码，编码器不支持该对象时使用JSON
+     * @param key 完整的key
+     * @param value 对象
+     * @return 编码后的字符串
+     */
+    public String encode(String key, Object value) {
+        CacheCodec codec = defaultCodec;
+        for (Route route : routes) {
+            if (key.startsWith(route.prefix)) {
+                codec = route.codec;
+                break;
+            }
+        }
+        return codec.supports(value) ? codec.encode(value) : json.encode(value);
+    }
+
+    /**
+     * 按格式标识选择解码器进行解码
+     * @param text 缓存中的字符串
+     * @param type 目标类型
+     * @return 对象，格式不兼容返回null
+     * @param <R> 目标类型
+     */
+    public <R> R decode(String text, Type type) {
+        CacheCodec codec = byMarker.get(text.charAt(0));
+        try {
+            return codec == null ? json.decode(text, type) : codec.decode(text, type);
+        } catch (RuntimeException e) {
+            log.warn("缓存解码失败，当作未命中处理，type={}", type.getTypeName(), e);
+            return null;
+        }
+    }
+
+    private static class Route {
+        private final String prefix;
+        private final CacheCodec codec;
+
+        private Route(String prefix, CacheCodec codec) {
+            this.prefix = prefix;
+            this.codec = codec;
+        }
+    }
+}
@@ -0,0 +1,352 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.bean.BeanUtil;
+import com.hmdp.config.CacheConsistencyProp;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.BlogMapper;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.mapper.UserMapper;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 缓存和数据库的一致性校验
+ * 更新数据库和删除缓存之间存在并发窗口(例如事务提交前删除缓存，并发的读请求把旧数据写回)，旧数据会一直保留到TTL过期
+ * 定时从Redis中抽样店铺、笔记、用户的缓存，按主键批量查询数据库，逐个字段比较，不一致的删除缓存并统计不一致率
+ * 1. 抽样使用SCAN，每个前缀保留一个游标，每一轮从上次的位置继续，一段时间后覆盖所有key
+ * 2. 只比较缓存对象中的字段，数据库中不存在的行也算不一致
+ * 3. 读缓存和查数据库之间数据可能刚好更新，这种情况会多删除一次缓存，只影响一次命中
+ */
+@Slf4j
+@Component
+public class CacheConsistencyVerifier {
+
+    private final CacheConsistencyProp prop;
+
+    private final StringRedisTemplate redisTemplate;
+
+    private final CacheClient cacheClient;
+
+    private final CacheCircuitBreaker breaker;
+
+    private final List<Target<?>> targets = new ArrayList<>();
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    /**
+     * 运行时调整的抽样数量
+     */
+    private volatile int sampleSize;
+
+    public CacheConsistencyVerifier(CacheConsistencyProp prop, StringRedisTemplate redisTemplate,
+                                    CacheClient cacheClient, CacheCircuitBreaker breaker,
+                                    ShopMapper shopMapper, BlogMapper blogMapper, UserMapper userMapper) {
+        this.prop = prop;
+        this.redisTemplate = redisTemplate;
+        this.cacheClient = cacheClient;
+        this.breaker = breaker;
+        this.sampleSize = prop.getSampleSize();
+        targets.add(new Target<>(CACHE_SHOP_KEY, Shop.class, shopMapper::selectBatchIds, Shop::getId));
+        // 笔记的缓存中没有点赞数，比较前去掉
+        targets.add(new Target<>(CACHE_BLOG_KEY, Blog.class,
+                ids -> blogMapper.selectBatchIds(ids).stream()
+                        .map(blog -> blog.setLiked(null))
+                        .collect(Collectors.toList()),
+                Blog::getId));
+        targets.add(new Target<>(CACHE_USER_KEY, UserDTO.class,
+                ids -> userMapper.selectBatchIds(ids).stream()
+                        .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
+                        .collect(Collectors.toList()),
+                UserDTO::getId));
+    }
+
+    @Scheduled(initialDelayString = "${hmdp.cache.consistency.interval-millis:60000}",
+            fixedDelayString = "${hmdp.cache.consistency.interval-millis:60000}")
+    public void scheduledVerify() {
+        if (prop.isEnabled()) {
+            verify();
+        }
+    }
+
+    /**
+     * 执行一轮校验，已经在执行或者Redis熔断时直接返回
+     * @return 本轮是否执行
+     */
+    public boolean verify() {
+        if (breaker.isOpen() || !running.compareAndSet(false, true)) {
+            return false;
+        }
+        try {
+            for (Target<?> target : targets) {
+                try {
+                    verify(target);
+                } catch (RuntimeException e) {
+                    log.warn("缓存一致性校验失败，prefix={}", target.prefix, e);
+                    target.closeCursor();
+                }
+            }
+            return true;
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private <T> void verify(Target<T> target) {
+        //1.抽样缓存中的id
+        List<Long> ids = target.sample(sampleSize);
+        if (ids.isEmpty()) {
+            target.record(0, 0, 0);
+            return;
+        }
+        List<String> keys = ids.stream().map(id -> target.prefix + id).collect(Collectors.toList());
+        List<T> cached = cacheClient.peek(keys, target.type);
+        //2.分批查询数据库
+        List<Long> presentIds = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i++) {
+            if (cached.get(i) != null) {
+                presentIds.add(ids.get(i));
+            }
+        }
+        Map<Long, T> rows = new HashMap<>(presentIds.size() * 2);
+        int batchSize = Math.max(1, prop.getBatchSize());
+        for (int from = 0; from < presentIds.size(); from += batchSize) {
+            List<Long> batch = presentIds.subList(from, Math.min(presentIds.size(), from + batchSize));
+            for (T row : target.loader.apply(batch)) {
+                rows.put(target.idGetter.apply(row), row);
+            }
+        }
+        //3.逐个字段比较
+        int divergent = 0;
+        int evicted = 0;
+        for (int i = 0; i < ids.size(); i++) {
+            T value = cached.get(i);
+            if (value == null) {
+                continue;
+            }
+            List<String> fields = diff(value, rows.get(ids.get(i)));
+            if (fields.isEmpty()) {
+                continue;
+            }
+            divergent++;
+            log.info("缓存和数据库不一致，key={}，字段={}", keys.get(i), fields);
+            if (prop.isAutoEvict()) {
+                cacheClient.delete(keys.get(i));
+                evicted++;
+            }
+        }
+        target.record(presentIds.size(), divergent, evicted);
+    }
+
+    /**
+     * 比较缓存对象中的字段
+     * @return 不一致的字段名，数据库中不存在返回 [*]
+     */
+    private static List<String> diff(Object cached, Object row) {
+        List<String> fields = new ArrayList<>();
+        if (row == null) {
+            fields.add("*");
+            return fields;
+        }
+        Map<String, Object> expected = BeanUtil.beanToMap(row);
+        for (Map.Entry<String, Object> e : BeanUtil.beanToMap(cached).entrySet()) {
+            if (!Objects.equals(e.getValue(), expected.get(e.getKey()))) {
+                fields.add(e.getKey());
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * 运行时调整每一轮的抽样数量
+     */
+    public void setSampleSize(int sampleSize) {
+        this.sampleSize = Math.max(0, sampleSize);
+    }
+
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    /**
+     * 每个前缀的校验结果
+     */
+    public List<Report> report() {
+        List<Report> reports = new ArrayList<>(targets.size());
+        for (Target<?> target : targets) {
+            Report report = new Report();
+            report.setPrefix(target.prefix);
+            report.setCompared(target.compared.sum());
+            report.setDivergent(target.divergent.sum());
+            report.setEvicted(target.evicted.sum());
+            report.setDivergenceRate(report.getCompared() == 0 ? 0
+                    : (double) report.getDivergent() / report.getCompared());
+            report.setLastCompared(target.lastCompared);
+            report.setLastDivergent(target.lastDivergent);
+            report.setLastVerifiedAt(target.lastVerifiedAt);
+            reports.add(report);
+        }
+        return reports;
+    }
+
+    @PreDestroy
+    public void close() {
+        for (Target<?> target : targets) {
+            target.closeCursor();
+        }
+    }
+
+    /**
+     * 一个前缀的校验结果
+     */
+    @Data
+    public static class Report {
+        private String prefix;
+        /**
+         * 累计比较的条数
+         */
+        private long compared;
+        /**
+         * 累计不一致的条数
+         */
+        private long divergent;
+        /**
+         * 累计删除的条数
+         */
+        private long evicted;
+        /**
+         * 累计的不一致率
+         */
+        private double divergenceRate;
+        /**
+         * 最近一轮比较的条数
+         */
+        private int lastCompared;
+        /**
+         * 最近一轮不一致的条数
+         */
+        private int lastDivergent;
+        /**
+         * 最近一轮的时间(epoch毫秒)
+         */
+        private long lastVerifiedAt;
+    }
+
+    /**
+     * 一个需要校验的key前缀
+     */
+    private class Target<T> {
+        private final String prefix;
+        private final Class<T> type;
+        private final Function<Collection<Long>, List<T>> loader;
+        private final Function<T, Long> idGetter;
+
+        private final LongAdder compared = new LongAdder();
+        private final LongAdder divergent = new LongAdder();
+        private final LongAdder evicted = new LongAdder();
+        private volatile int lastCompared;
+        private volatile int lastDivergent;
+        private volatile long lastVerifiedAt;
+
+        /**
+         * SCAN的游标，跨轮次保留，遍历完一遍后重新开始
+         */
+        private Cursor<byte[]> cursor;
+
+        private Target(String prefix, Class<T> type, Function<Collection<Long>, List<T>> loader,
+                       Function<T, Long> idGetter) {
+            this.prefix = prefix;
+            this.type = type;
+            this.loader = loader;
+            this.idGetter = idGetter;
+        }
+
+        /**
+         * 继续SCAN，最多取出limit个id；分桶存储的桶取出其中的字段
+         */
+        private List<Long> sample(int limit) {
+            Set<Long> ids = new LinkedHashSet<>();
+            boolean restarted = false;
+            while (ids.size() < limit) {
+                if (cursor == null || !cursor.hasNext()) {
+                    closeCursor();
+                    if (restarted) {
+                        break;
+                    }
+                    // 一轮之内最多从头开始一次，避免key很少时重复抽样
+                    restarted = true;
+                    ScanOptions options = ScanOptions.scanOptions()
+                            .match(prefix + "*").count(prop.getScanCount()).build();
+                    cursor = redisTemplate.executeWithStickyConnection(
+                            (RedisCallback<Cursor<byte[]>>) connection -> connection.scan(options));
+                    if (cursor == null || !cursor.hasNext()) {
+                        break;
+                    }
+                }
+                String key = new String(cursor.next(), StandardCharsets.UTF_8);
+                String suffix = key.substring(prefix.length());
+                if (suffix.startsWith("b:")) {
+                    for (Object field : redisTemplate.opsForHash().keys(key)) {
+                        addId(ids, field.toString());
+                    }
+                } else {
+                    addId(ids, suffix);
+                }
+            }
+            List<Long> result = new ArrayList<>(ids);
+            return result.size() > limit ? result.subList(0, limit) : result;
+        }
+
+        private void addId(Set<Long> ids, String text) {
+            try {
+                ids.add(Long.valueOf(text));
+            } catch (NumberFormatException ignored) {
+                // 不是数字id的key，不校验
+            }
+        }
+
+        private void record(int compared, int divergent, int evicted) {
+            this.compared.add(compared);
+            this.divergent.add(divergent);
+            this.evicted.add(evicted);
+            this.lastCompared = compared;
+            this.lastDivergent = divergent;
+            this.lastVerifiedAt = System.currentTimeMillis();
+        }
+
+        private void closeCursor() {
+            if (cursor != null) {
+                try {
+                    cursor.close();
+                } catch (RuntimeException e) {
+                    log.debug("关闭SCAN游标失败，prefix={}", prefix, e);
+                }
+                cursor = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.hmdp.utils;
+
+/**
+ * 带过期时间的缓存值
+ * Redis中的格式：'E' + 过期时间(epoch毫秒) + [',' + 重建耗时(毫秒)] + '|' + 编码后的数据
+ * 判断是否过期只需要读取头部的数字，不需要解析后面的数据；数据直接解码为目标类型
+ * 重建耗时只有概率提前过期(XFetch)策略才会写入
+ * 本地缓存中保存的是解码后的对象和过期时间
+ */
+public class CacheEnvelope {
+
+    public static final char MARKER = 'E';
+
+    private static final char SEPARATOR = '|';
+
+    private static final char DELTA_SEPARATOR = ',';
+
+    /**
+     * 过期时间(epoch毫秒)
+     */
+    private final long expireMillis;
+
+    /**
+     * 上一次重建的耗时(毫秒)，没有记录为0
+     */
+    private final long deltaMillis;
+
+    /**
+     * 解码后的数据
+     */
+    private final Object data;
+
+    public CacheEnvelope(long expireMillis, Object data) {
+        this(expireMillis, 0, data);
+    }
+
+    public CacheEnvelope(long expireMillis, long deltaMillis, Object data) {
+        this.expireMillis = expireMillis;
+        this.deltaMillis = deltaMillis;
+        this.data = data;
+    }
+
+    public long getExpireMillis() {
+        return expireMillis;
+    }
+
+    public long getDeltaMillis() {
+        return deltaMillis;
+    }
+
+    public Object getData() {
+        return data;
+    }
+
+    /**
+     * 是否已经过期
+     */
+    public boolean isExpired(long nowMillis) {
+        return expireMillis <= nowMillis;
+    }
+
+    /**
+     * 包装成Redis中的格式
+     * @param expireMillis 过期时间(epoch毫秒)
+     * @param payload 编码后的数据
+     */
+    public static String wrap(long expireMillis, String payload) {
+        return MARKER + Long.toString(expireMillis) + SEPARATOR + payload;
+    }
+
+    /**
+     * 包装成Redis中的格式，同时记录重建耗时
+     * @param expireMillis 过期时间(epoch毫秒)
+     * @param deltaMillis 重建耗时(毫秒)
+     * @param payload 编码后的数据
+     */
+    public static String wrap(long expireMillis, long deltaMillis, String payload) {
+        return MARKER + Long.toString(expireMillis) + DELTA_SEPARATOR + deltaMillis + SEPARATOR + payload;
+    }
+
+    /**
+     * 是否是这种格式，旧的RedisData格式以'{'开头
+     */
+    public static boolean isEnvelope(String text) {
+        return text != null && !text.isEmpty() && text.charAt(0) == MARKER;
+    }
+
+    /**
+     * 只读取头部的过期时间
+     * @return 过期时间(epoch毫秒)，格式错误返回-1
+     */
+    public static long expireMillis(String text) {
+        long millis = 0;
+        for (int i = 1; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == SEPARATOR || c == DELTA_SEPARATOR) {
+                return i == 1 ? -1 : millis;
+            }
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            millis = millis * 10 + (c - '0');
+        }
+        return -1;
+    }
+
+    /**
+     * 读取头部的重建耗时
+     * @return 重建耗时(毫秒)，没有记录或者格式错误返回0
+     */
+    public static long deltaMillis(String text) {
+        long millis = 0;
+        boolean found = false;
+        for (int i = 1; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == SEPARATOR) {
+                return millis;
+            }
+            if (c == DELTA_SEPARATOR) {
+                found = true;
+            } else if (found) {
+                if (c < '0' || c > '9') {
+                    return 0;
+                }
+                millis = millis * 10 + (c - '0');
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 读取编码后的数据部分
+     */
+    public static String payload(String text) {
+        int index = text.indexOf(SEPARATOR);
+        return index < 0 ? "" : text.substring(index + 1);
+    }
+}
@@ -0,0 +1,218 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.config.CacheInvalidationProp;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 集群内本地缓存(L1)的失效广播
+ * 1. 基于Redis发布订阅，同一批次内的key去重合并后一次发送
+ * 2. 每个节点的消息带递增序号，序号不连续说明漏了消息，直接清空本地缓存
+ * 3. 定时发送心跳，超过时间窗口没收到任何消息(包括自己的心跳)，认为订阅断开：
+ *    清空并暂停本地缓存，重新收到消息后再恢复
+ */
+@Slf4j
+@Component
+public class CacheInvalidationBus implements MessageListener {
+
+    /**
+     * 当前节点的标识
+     */
+    private final String nodeId = UUID.randomUUID().toString(true);
+
+    private final StringRedisTemplate redisTemplate;
+
+    private final RedisMessageListenerContainer listenerContainer;
+
+    private final LocalCache localCache;
+
+    private final CacheInvalidationProp prop;
+
+    private final ApplicationEventPublisher eventPublisher;
+
+    /**
+     * 等待发送的key，Set天然合并重复的key
+     */
+    private final Set<String> pendingKeys = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 本节点发送消息的序号
+     */
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * 其它节点最后一条消息的序号
+     */
+    private final Map<String, Long> lastSequences = new ConcurrentHashMap<>();
+
+    private volatile long lastSentMillis = 0;
+
+    private volatile long lastReceivedMillis = System.currentTimeMillis();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "cache-invalidation-bus");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public CacheInvalidationBus(StringRedisTemplate redisTemplate,
+                                RedisMessageListenerContainer listenerContainer,
+                                LocalCache localCache,
+                                CacheInvalidationProp prop,
+                                ApplicationEventPublisher eventPublisher) {
+        this.redisTemplate = redisTemplate;
+        this.listenerContainer = listenerContainer;
+        this.localCache = localCache;
+        this.prop = prop;
+        this.eventPublisher = eventPublisher;
+    }
+
+    @PostConstruct
+    private void init() {
+        listenerContainer.addMessageListener(this, new ChannelTopic(prop.getChannel()));
+        scheduler.scheduleWithFixedDelay(this::tick, prop.getBatchMillis(), prop.getBatchMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        scheduler.shutdown();
+        // 把还没发出去的失效消息发完
+        flush();
+    }
+
+    /**
+     * 广播key失效，本节点立即删除，其它节点在下一个批次收到
+     * @param key 完整的key
+     */
+    public void publish(String key) {
+        localCache.invalidate(key);
+        pendingKeys.add(key);
+    }
+
+    /**
+     * 定时任务：发送攒好的批次、心跳，并检查是否漏消息
+     */
+    private void tick() {
+        try {
+            flush();
+            long now = System.currentTimeMillis();
+            if (now - lastSentMillis >= prop.getHeartbeatMillis()) {
+                send(new ArrayList<>());
+            }
+            if (!localCache.isSuspended() && now - lastReceivedMillis > prop.getMissedWindowMillis()) {
+                log.warn("超过{}ms没有收到缓存失效消息，清空并暂停本地缓存", prop.getMissedWindowMillis());
+                localCache.setSuspended(true);
+                localCache.invalidateAll();
+            }
+        } catch (Exception e) {
+            log.error("发送缓存失效消息异常", e);
+        }
+    }
+
+    /**
+     * 把等待中的key分批发送出去
+     */
+    private void flush() {
+        if (pendingKeys.isEmpty()) {
+            return;
+        }
+        List<String> batch = new ArrayList<>();
+        Iterator<String> iterator = pendingKeys.iterator();
+        while (iterator.hasNext()) {
+            batch.add(iterator.next());
+            iterator.remove();
+            if (batch.size() >= prop.getMaxBatchSize()) {
+                send(batch);
+                batch = new ArrayList<>();
+            }
+        }
+        if (!batch.isEmpty()) {
+            send(batch);
+        }
+    }
+
+    private void send(List<String> keys) {
+        InvalidationMessage message = new InvalidationMessage();
+        message.setNode(nodeId);
+        message.setSeq(sequence.incrementAndGet());
+        message.setKeys(keys);
+        redisTemplate.convertAndSend(prop.getChannel(), JSONUtil.toJsonStr(message));
+        lastSentMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * 收到失效消息
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        onMessage(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 处理一条失效消息，也可以直接调用来模拟其它节点的广播
+     * @param body 消息内容
+     */
+    public void onMessage(String body) {
+        InvalidationMessage message = JSONUtil.toBean(body, InvalidationMessage.class);
+        lastReceivedMillis = System.currentTimeMillis();
+        if (localCache.isSuspended()) {
+            // 订阅恢复了，断开期间可能漏了消息，清空后再恢复本地缓存
+            log.info("缓存失效消息恢复，重新开启本地缓存");
+            localCache.invalidateAll();
+            lastSequences.clear();
+            localCache.setSuspended(false);
+            eventPublisher.publishEvent(new CacheResyncEvent(this));
+        }
+        if (nodeId.equals(message.getNode())) {
+            // 自己发的消息，本地已经删过了
+            return;
+        }
+        Long last = lastSequences.put(message.getNode(), message.getSeq());
+        if (last != null && message.getSeq() != last + 1) {
+            log.warn("节点{}的缓存失效消息不连续({} -> {})，清空本地缓存", message.getNode(), last, message.getSeq());
+            localCache.invalidateAll();
+            return;
+        }
+        if (message.getKeys() != null) {
+            for (String key : message.getKeys()) {
+                localCache.invalidate(key);
+            }
+        }
+    }
+
+    /**
+     * 失效消息
+     */
+    @Data
+    public static class InvalidationMessage {
+        //发送的节点
+        private String node;
+        //节点内递增的序号
+        private long seq;
+        //失效的key
+        private List<String> keys;
+    }
+}
@@ -0,0 +1,241 @@
+package com.hmdp.utils;
+
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * CacheClient 的指标，按key前缀统计
+ * 1. 请求结果：本地缓存命中、Redis命中、空值命中、未命中、布隆过滤器拦截
+ * 2. 缓存重建次数、互斥锁获取成功/竞争失败次数
+ * 3. 查询数据库的耗时直方图
+ * 记录只是LongAdder累加，不加锁；scrape()输出Prometheus文本格式
+ */
+@Component
+public class CacheMetrics {
+
+    /**
+     * 数据库耗时直方图的桶上界(秒)
+     */
+    private static final double[] BUCKETS = {0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5};
+
+    private static final long[] BUCKET_NANOS = new long[BUCKETS.length];
+
+    static {
+        for (int i = 0; i < BUCKETS.length; i++) {
+            BUCKET_NANOS[i] = (long) (BUCKETS[i] * TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+
+    private final Map<String, PrefixMetrics> prefixes = new ConcurrentHashMap<>();
+
+    private final CacheRefreshAhead refreshAhead;
+
+    private final HotKeyDetector hotKeyDetector;
+
+    private final CacheRebuildExecutor rebuildExecutor;
+
+    private final CacheCircuitBreaker breaker;
+
+    public CacheMetrics(CacheRefreshAhead refreshAhead, HotKeyDetector hotKeyDetector,
+                        CacheRebuildExecutor rebuildExecutor, CacheCircuitBreaker breaker) {
+        this.refreshAhead = refreshAhead;
+        this.hotKeyDetector = hotKeyDetector;
+        this.rebuildExecutor = rebuildExecutor;
+        this.breaker = breaker;
+    }
+
+    private PrefixMetrics of(String keyPrefix) {
+        PrefixMetrics metrics = prefixes.get(keyPrefix);
+        return metrics != null ? metrics : prefixes.computeIfAbsent(keyPrefix, k -> new PrefixMetrics());
+    }
+
+    public void l1Hit(String keyPrefix) {
+        of(keyPrefix).l1Hit.increment();
+    }
+
+    public void redisHit(String keyPrefix) {
+        of(keyPrefix).redisHit.increment();
+    }
+
+    public void nullHit(String keyPrefix) {
+        of(keyPrefix).nullHit.increment();
+    }
+
+    public void miss(String keyPrefix) {
+        of(keyPrefix).miss.increment();
+    }
+
+    public void bloomReject(String keyPrefix) {
+        of(keyPrefix).bloomReject.increment();
+    }
+
+    public void rebuild(String keyPrefix) {
+        of(keyPrefix).rebuild.increment();
+    }
+
+    /**
+     * 记录一次获取互斥锁
+     * @param acquired 是否获取成功，失败说明有其它线程或节点正在重建
+     */
+    public void lock(String keyPrefix, boolean acquired) {
+        if (acquired) {
+            of(keyPrefix).lockAcquired.increment();
+        } else {
+            of(keyPrefix).lockContended.increment();
+        }
+    }
+
+    /**
+     * 记录一次查询数据库的耗时
+     * @param nanos 耗时(纳秒)
+     */
+    public void dbFallback(String keyPrefix, long nanos) {
+        PrefixMetrics metrics = of(keyPrefix);
+        int i = 0;
+        while (i < BUCKET_NANOS.length && nanos > BUCKET_NANOS[i]) {
+            i++;
+        }
+        metrics.dbBuckets[i].increment();
+        metrics.dbNanos.add(nanos);
+    }
+
+    /**
+     * 输出Prometheus文本格式(0.0.4)
+     */
+    public String scrape() {
+        Map<String, PrefixMetrics> sorted = new TreeMap<>(prefixes);
+        StringBuilder sb = new StringBuilder(4096);
+
+        type(sb, "hmdp_cache_requests_total", "counter", "缓存查询次数，按结果分类");
+        for (Map.Entry<String, PrefixMetrics> entry : sorted.entrySet()) {
+            PrefixMetrics m = entry.getValue();
+            String prefix = entry.getKey();
+            requests(sb, prefix, "l1_hit", m.l1Hit);
+            requests(sb, prefix, "redis_hit", m.redisHit);
+            requests(sb, prefix, "null_hit", m.nullHit);
+            requests(sb, prefix, "miss", m.miss);
+            requests(sb, prefix, "bloom_reject", m.bloomReject);
+        }
+
+        type(sb, "hmdp_cache_rebuild_total", "counter", "缓存重建次数");
+        for (Map.Entry<String, PrefixMetrics> entry : sorted.entrySet()) {
+            sample(sb, "hmdp_cache_rebuild_total", label(entry.getKey()), entry.getValue().rebuild.sum());
+        }
+
+        type(sb, "hmdp_cache_lock_total", "counter", "获取重建互斥锁的次数，contended表示锁被占用");
+        for (Map.Entry<String, PrefixMetrics> entry : sorted.entrySet()) {
+            String labels = label(entry.getKey());
+            sample(sb, "hmdp_cache_lock_total", labels + ",result=\"acquired\"", entry.getValue().lockAcquired.sum());
+            sample(sb, "hmdp_cache_lock_total", labels + ",result=\"contended\"", entry.getValue().lockContended.sum());
+        }
+
+        type(sb, "hmdp_cache_db_fallback_seconds", "histogram", "缓存未命中时查询数据库的耗时");
+        for (Map.Entry<String, PrefixMetrics> entry : sorted.entrySet()) {
+            PrefixMetrics m = entry.getValue();
+            String labels = label(entry.getKey());
+            long cumulative = 0;
+            for (int i = 0; i < BUCKETS.length; i++) {
+                cumulative += m.dbBuckets[i].sum();
+                sample(sb, "hmdp_cache_db_fallback_seconds_bucket", labels + ",le=\"" + BUCKETS[i] + "\"", cumulative);
+            }
+            cumulative += m.dbBuckets[BUCKETS.length].sum();
+            sample(sb, "hmdp_cache_db_fallback_seconds_bucket", labels + ",le=\"+Inf\"", cumulative);
+            sample(sb, "hmdp_cache_db_fallback_seconds_sum", labels, m.dbNanos.sum() / 1e9);
+            sample(sb, "hmdp_cache_db_fallback_seconds_count", labels, cumulative);
+        }
+
+        type(sb, "hmdp_cache_refresh_ahead_total", "counter", "提前刷新的次数，按结果分类");
+        sample(sb, "hmdp_cache_refresh_ahead_total", "result=\"success\"", refreshAhead.getSuccessCount());
+        sample(sb, "hmdp_cache_refresh_ahead_total", "result=\"failure\"", refreshAhead.getFailureCount());
+        sample(sb, "hmdp_cache_refresh_ahead_total", "result=\"rejected\"", refreshAhead.getRejectedCount());
+        sample(sb, "hmdp_cache_refresh_ahead_total", "result=\"deduped\"", refreshAhead.getDedupedCount());
+        type(sb, "hmdp_cache_refresh_ahead_seconds", "summary", "提前刷新的耗时，_sum/_count 为平均耗时");
+        sample(sb, "hmdp_cache_refresh_ahead_seconds_sum", null, refreshAhead.getTotalNanos() / 1e9);
+        sample(sb, "hmdp_cache_refresh_ahead_seconds_count", null, refreshAhead.getTimedCount());
+        type(sb, "hmdp_cache_refresh_ahead_seconds_max", "gauge", "提前刷新的最大耗时");
+        sample(sb, "hmdp_cache_refresh_ahead_seconds_max", null, refreshAhead.getMaxNanos() / 1e9);
+        type(sb, "hmdp_cache_refresh_ahead_queue_size", "gauge", "等待执行的提前刷新任务数");
+        sample(sb, "hmdp_cache_refresh_ahead_queue_size", null, refreshAhead.getQueueSize());
+
+        type(sb, "hmdp_cache_rebuild_tasks_total", "counter", "逻辑过期重建任务的次数，按结果分类");
+        sample(sb, "hmdp_cache_rebuild_tasks_total", "result=\"completed\"", rebuildExecutor.getCompletedCount());
+        sample(sb, "hmdp_cache_rebuild_tasks_total", "result=\"failure\"", rebuildExecutor.getFailureCount());
+        sample(sb, "hmdp_cache_rebuild_tasks_total", "result=\"timeout\"", rebuildExecutor.getTimeoutCount());
+        sample(sb, "hmdp_cache_rebuild_tasks_total", "result=\"rejected\"", rebuildExecutor.getRejectedCount());
+        sample(sb, "hmdp_cache_rebuild_tasks_total", "result=\"deduped\"", rebuildExecutor.getDedupedCount());
+        type(sb, "hmdp_cache_rebuild_queue_size", "gauge", "等待执行的重建任务数");
+        sample(sb, "hmdp_cache_rebuild_queue_size", null, rebuildExecutor.getQueueSize());
+        type(sb, "hmdp_cache_rebuild_active", "gauge", "正在执行的重建任务数");
+        sample(sb, "hmdp_cache_rebuild_active", null, rebuildExecutor.getActiveCount());
+
+        type(sb, "hmdp_cache_breaker_open", "gauge", "缓存熔断器是否打开");
+        sample(sb, "hmdp_cache_breaker_open", null, breaker.isOpen() ? 1 : 0);
+        type(sb, "hmdp_cache_breaker_opened_total", "counter", "缓存熔断器打开的次数");
+        sample(sb, "hmdp_cache_breaker_opened_total", null, breaker.getOpenCount());
+        type(sb, "hmdp_cache_degraded_total", "counter", "熔断降级处理的请求数");
+        sample(sb, "hmdp_cache_degraded_total", null, breaker.getDegradedCount());
+        type(sb, "hmdp_cache_degraded_db_rejected_total", "counter", "熔断期间因数据库并发限制被拒绝的请求数");
+        sample(sb, "hmdp_cache_degraded_db_rejected_total", null, breaker.getDbRejectedCount());
+
+        type(sb, "hmdp_cache_hot_keys", "gauge", "当前的热点key数量");
+        for (Map.Entry<String, List<HotKeyDetector.HotKey>> entry : hotKeyDetector.report().entrySet()) {
+            sample(sb, "hmdp_cache_hot_keys", label(entry.getKey()), entry.getValue().size());
+        }
+        return sb.toString();
+    }
+
+    private static void requests(StringBuilder sb, String prefix, String result, LongAdder adder) {
+        sample(sb, "hmdp_cache_requests_total", label(prefix) + ",result=\"" + result + "\"", adder.sum());
+    }
+
+    private static String label(String prefix) {
+        return "prefix=\"" + prefix.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private static void type(StringBuilder sb, String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder sb, String name, String labels, double value) {
+        sb.append(name);
+        if (labels != null) {
+            sb.append('{').append(labels).append('}');
+        }
+        sb.append(' ');
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            sb.append((long) value);
+        } else {
+            sb.append(value);
+        }
+        sb.append('\n');
+    }
+
+    private static class PrefixMetrics {
+        private final LongAdder l1Hit = new LongAdder();
+        private final LongAdder redisHit = new LongAdder();
+        private final LongAdder nullHit = new LongAdder();
+        private final LongAdder miss = new LongAdder();
+        private final LongAdder bloomReject = new LongAdder();
+        private final LongAdder rebuild = new LongAdder();
+        private final LongAdder lockAcquired = new LongAdder();
+        private final LongAdder lockContended = new LongAdder();
+        private final LongAdder dbNanos = new LongAdder();
+        /**
+         * 最后一个是+Inf
+         */
+        private final LongAdder[] dbBuckets = new LongAdder[BUCKETS.length + 1];
+
+        private PrefixMetrics() {
+            for (int i = 0; i < dbBuckets.length; i++) {
+                dbBuckets[i] = new LongAdder();
+            }
+        }
+    }
+}
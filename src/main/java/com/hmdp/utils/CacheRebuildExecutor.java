@@ -0,0 +1,200 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheRebuildProp;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 缓存重建的线程池，替代原来的 Executors.newFixedThreadPool(10)
+ * 1. 有界队列，队列满了直接拒绝(计数)，不会无限堆积任务
+ * 2. 同一个key同时只有一个重建任务，重复提交直接忽略
+ * 3. 任务开始执行后超过时间没有完成就中断并计数；阻塞在JDBC中的线程可能不响应中断，
+ *    key和互斥锁一直保留到任务真正结束，期间不会再提交同一个key，过期的任务也不会覆盖更新的值
+ * 4. 任务的异常记录日志，不再被线程池吞掉
+ * 5. 随Spring容器关闭，等待正在执行的任务完成
+ */
+@Slf4j
+@Component
+public class CacheRebuildExecutor {
+
+    private final CacheRebuildProp prop;
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * 检查任务超时
+     */
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "cache-rebuild-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 正在重建(排队或者执行中)的key
+     */
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder completedCount = new LongAdder();
+    private final LongAdder failureCount = new LongAdder();
+    private final LongAdder timeoutCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+    private final LongAdder dedupedCount = new LongAdder();
+
+    public CacheRebuildExecutor(CacheRebuildProp prop) {
+        this.prop = prop;
+        AtomicInteger index = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(prop.getThreads(), prop.getThreads(),
+                0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(prop.getQueueCapacity()), r -> {
+            Thread thread = new Thread(r, "cache-rebuild-" + index.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * 判断key是否正在重建
+     * @param key 完整的key
+     */
+    public boolean isRebuilding(String key) {
+        return inFlight.contains(key);
+    }
+
+    /**
+     * 提交重建任务
+     * @param key 完整的key，用于去重
+     * @param task 重建任务
+     * @param cleanup 任务结束(完成、失败、超时或者被拒绝)后执行，例如释放互斥锁
+     * @return 是否提交成功，false说明同一个key已经在重建或者队列已满，cleanup已经执行
+     */
+    public boolean submit(String key, Runnable task, Runnable cleanup) {
+        if (!inFlight.add(key)) {
+            dedupedCount.increment();
+            cleanup.run();
+            return false;
+        }
+        try {
+            executor.execute(new RebuildTask(key, task, cleanup));
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejectedCount.increment();
+            inFlight.remove(key);
+            cleanup.run();
+            log.warn("缓存重建队列已满，放弃重建，key={}", key);
+            return false;
+        }
+    }
+
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    public long getCompletedCount() {
+        return completedCount.sum();
+    }
+
+    public long getFailureCount() {
+        return failureCount.sum();
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    public long getDedupedCount() {
+        return dedupedCount.sum();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(prop.getShutdownWaitMillis(), TimeUnit.MILLISECONDS)) {
+                log.warn("缓存重建任务没有在规定时间内完成，强制关闭，剩余 {} 个", executor.shutdownNow().size());
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        } finally {
+            watchdog.shutdownNow();
+        }
+    }
+
+    /**
+     * 带超时和清理的重建任务
+     */
+    private class RebuildTask extends FutureTask<Void> {
+        private final String key;
+        private final Runnable cleanup;
+
+        private RebuildTask(String key, Runnable task, Runnable cleanup) {
+            super(task, null);
+            this.key = key;
+            this.cleanup = cleanup;
+        }
+
+        @Override
+        public void run() {
+            ScheduledFuture<?> timeout = watchdog.schedule(() -> {
+                // 只是不再等待结果并尝试中断，key和互斥锁在任务真正结束后才释放
+                if (cancel(true)) {
+                    timeoutCount.increment();
+                    log.warn("缓存重建超时，已中断，key={}", key);
+                }
+            }, prop.getTimeoutMillis(), TimeUnit.MILLISECONDS);
+            try {
+                // 取消后 super.run() 仍然等待任务本身返回
+                super.run();
+            } finally {
+                timeout.cancel(false);
+                // 清除超时留下的中断标记，否则释放互斥锁的Redis命令会被中断
+                Thread.interrupted();
+                inFlight.remove(key);
+                cleanup.run();
+            }
+        }
+
+        @Override
+        protected void done() {
+            try {
+                get();
+                completedCount.increment();
+            } catch (CancellationException e) {
+                // 超时被取消，已经计数
+            } catch (ExecutionException e) {
+                failureCount.increment();
+                log.error("缓存重建失败，key={}", key, e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
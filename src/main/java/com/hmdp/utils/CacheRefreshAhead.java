@@ -0,0 +1,144 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheRefreshProp;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 缓存提前刷新(refresh-ahead)
+ * 读到的key剩余TTL低于配置的比例时，提交到有界线程池异步重新加载，请求线程继续返回当前的值，
+ * 热点key不会在过期的那一刻让某个用户请求同步查询数据库
+ * 同一个key同时只会有一个刷新任务
+ */
+@Slf4j
+@Component
+public class CacheRefreshAhead {
+
+    private final CacheRefreshProp prop;
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * 正在刷新的key
+     */
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder successCount = new LongAdder();
+    private final LongAdder failureCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+    private final LongAdder dedupedCount = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAdder timedCount = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    public CacheRefreshAhead(CacheRefreshProp prop) {
+        this.prop = prop;
+        AtomicInteger index = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(prop.getThreads(), prop.getThreads(),
+                0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(prop.getQueueCapacity()), r -> {
+            Thread thread = new Thread(r, "cache-refresh-" + index.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    public boolean isEnabled() {
+        return prop.isEnabled();
+    }
+
+    /**
+     * 判断是否需要提前刷新
+     * @param ttlMillis Redis中剩余的TTL(毫秒)，PTTL的返回值
+     * @param fullMillis 写入时设置的TTL(毫秒)
+     */
+    public boolean shouldRefresh(long ttlMillis, long fullMillis) {
+        return prop.isEnabled() && ttlMillis > 0 && ttlMillis < fullMillis * prop.getFraction();
+    }
+
+    /**
+     * 提交异步刷新任务，同一个key已经在刷新或者队列已满时直接返回
+     * @param key 完整的key
+     * @param loader 查询数据库并写入缓存
+     */
+    public void refresh(String key, Runnable loader) {
+        if (!refreshing.add(key)) {
+            dedupedCount.increment();
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                long begin = System.nanoTime();
+                try {
+                    loader.run();
+                    successCount.increment();
+                } catch (Exception e) {
+                    failureCount.increment();
+                    log.warn("缓存提前刷新失败，key={}", key, e);
+                } finally {
+                    long nanos = System.nanoTime() - begin;
+                    totalNanos.add(nanos);
+                    timedCount.increment();
+                    maxNanos.accumulate(nanos);
+                    refreshing.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            refreshing.remove(key);
+            rejectedCount.increment();
+        }
+    }
+
+    public long getSuccessCount() {
+        return successCount.sum();
+    }
+
+    public long getFailureCount() {
+        return failureCount.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    public long getDedupedCount() {
+        return dedupedCount.sum();
+    }
+
+    /**
+     * 刷新耗时的累计值(纳秒)，除以 getTimedCount() 就是平均耗时
+     */
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    /**
+     * 计入耗时的刷新次数(成功和失败)，和 getTotalNanos() 一起更新
+     */
+    public long getTimedCount() {
+        return timedCount.sum();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,13 @@
+package com.hmdp.utils;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * 发布订阅断开后恢复的事件，断开期间的广播消息可能已经丢失，监听者需要重新同步
+ */
+public class CacheResyncEvent extends ApplicationEvent {
+
+    public CacheResyncEvent(Object source) {
+        super(source);
+    }
+}
@@ -0,0 +1,263 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.config.CacheWarmupProp;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.mapper.ShopTypeMapper;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 缓存预热，部署或者Redis故障切换之后把热点数据重新写入Redis
+ * 1. 店铺按id分批从数据库读取，每批用一次pipeline写入 cache:shop:{id} 和 shop:geo:{typeId}
+ * 2. 店铺类型写入 cache:shopType:
+ * 3. TTL随机浮动，避免预热的key同时过期
+ * 4. 同时写入的批次数有上限，批次之间可以暂停，避免影响线上请求
+ * 同一时间只会有一个预热任务，通过管理接口触发；开启启动预热时，一段时间内只有第一个启动的实例执行
+ */
+@Slf4j
+@Component
+public class CacheWarmer {
+
+    private static final String STARTUP_LOCK_KEY = LOCK_CACHE_KEY + "cache:warmup";
+
+    private final CacheWarmupProp prop;
+
+    private final StringRedisTemplate redisTemplate;
+
+    private final ShopMapper shopMapper;
+
+    private final ShopTypeMapper shopTypeMapper;
+
+    private final CacheCodecs codecs;
+
+    private final CacheBucketLayout bucketLayout;
+
+    private final CacheClient cacheClient;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private volatile Progress progress = new Progress();
+
+    /**
+     * 读取数据库的线程
+     */
+    private final ExecutorService reader = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "cache-warmup-reader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 写入Redis的线程
+     */
+    private final ExecutorService writers;
+
+    public CacheWarmer(CacheWarmupProp prop, StringRedisTemplate redisTemplate,
+                       ShopMapper shopMapper, ShopTypeMapper shopTypeMapper, CacheCodecs codecs,
+                       CacheBucketLayout bucketLayout, CacheClient cacheClient) {
+        this.prop = prop;
+        this.redisTemplate = redisTemplate;
+        this.shopMapper = shopMapper;
+        this.shopTypeMapper = shopTypeMapper;
+        this.codecs = codecs;
+        this.bucketLayout = bucketLayout;
+        this.cacheClient = cacheClient;
+        AtomicInteger index = new AtomicInteger();
+        this.writers = Executors.newFixedThreadPool(Math.max(1, prop.getParallelism()), r -> {
+            Thread thread = new Thread(r, "cache-warmup-writer-" + index.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onReady() {
+        if (!prop.isOnStartup()) {
+            return;
+        }
+        // 锁不主动释放，到期前启动的其它实例都跳过
+        Boolean locked = redisTemplate.opsForValue()
+                .setIfAbsent(STARTUP_LOCK_KEY, "1", prop.getStartupLockSeconds(), TimeUnit.SECONDS);
+        if (!Boolean.TRUE.equals(locked)) {
+            log.info("{} 秒内其它实例已经执行过启动预热，跳过", prop.getStartupLockSeconds());
+            return;
+        }
+        start();
+    }
+
+    /**
+     * 在后台开始预热
+     * @return false说明已经有预热任务在执行
+     */
+    public boolean start() {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        Progress p = new Progress();
+        p.setState(Progress.RUNNING);
+        p.setStartTime(System.currentTimeMillis());
+        progress = p;
+        reader.submit(() -> {
+            try {
+                warmUp(p);
+                p.setState(Progress.DONE);
+                log.info("缓存预热完成，店铺 {} 条，店铺类型 {} 条，耗时 {} ms",
+                        p.getShops(), p.getShopTypes(), System.currentTimeMillis() - p.getStartTime());
+            } catch (Exception e) {
+                p.setState(Progress.FAILED);
+                p.setError(e.getMessage());
+                log.error("缓存预热失败", e);
+            } finally {
+                p.setFinishTime(System.currentTimeMillis());
+                running.set(false);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * 当前或者最后一次预热的进度
+     */
+    public Progress getProgress() {
+        return progress;
+    }
+
+    private void warmUp(Progress p) throws InterruptedException {
+        //1.店铺类型只有一个key
+        List<ShopType> types = shopTypeMapper.selectList(new QueryWrapper<ShopType>().orderByAsc("sort"));
+        //  和店铺一样按key选择编码和存储方式，和CacheClient读取时一致
+        long typeTtl = CacheClient.jitterSeconds(TimeUnit.MINUTES.toSeconds(CACHE_SHOP_TYPE_TTL), prop.getTtlJitter());
+        String typeValue = codecs.encode(CACHE_SHOP_TYPE_KEY, types);
+        if (bucketLayout.handles(CACHE_SHOP_TYPE_KEY)) {
+            bucketLayout.set(CACHE_SHOP_TYPE_KEY, typeValue, TimeUnit.SECONDS.toMillis(typeTtl));
+        } else {
+            redisTemplate.opsForValue().set(CACHE_SHOP_TYPE_KEY, typeValue, typeTtl, TimeUnit.SECONDS);
+        }
+        cacheClient.invalidate(CACHE_SHOP_TYPE_KEY);
+        p.setShopTypes(types.size());
+
+        //2.店铺按id分批读取，读取和写入并行，同时写入的批次数由信号量限制
+        p.setTotal(shopMapper.selectCount(null));
+        int parallelism = Math.max(1, prop.getParallelism());
+        Semaphore permits = new Semaphore(parallelism);
+        AtomicLong written = new AtomicLong();
+        AtomicInteger failedChunks = new AtomicInteger();
+        long lastId = 0;
+        while (true) {
+            List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("LIMIT " + prop.getChunkSize()));
+            if (shops.isEmpty()) {
+                break;
+            }
+            lastId = shops.get(shops.size() - 1).getId();
+            permits.acquire();
+            writers.submit(() -> {
+                try {
+                    writeShops(shops);
+                    p.setShops(written.addAndGet(shops.size()));
+                } catch (Exception e) {
+                    failedChunks.incrementAndGet();
+                    log.warn("缓存预热写入失败，{} 条店铺", shops.size(), e);
+                } finally {
+                    permits.release();
+                }
+            });
+            log.debug("缓存预热进度 {}/{}", p.getShops(), p.getTotal());
+            if (prop.getPauseMillis() > 0) {
+                Thread.sleep(prop.getPauseMillis());
+            }
+        }
+        //3.等待所有批次写完
+        permits.acquire(parallelism);
+        permits.release(parallelism);
+        if (failedChunks.get() > 0) {
+            throw new IllegalStateException(failedChunks.get() + " 批店铺写入失败");
+        }
+    }
+
+    /**
+     * 一次pipeline写入一批店铺的缓存和地理坐标
+     */
+    private void writeShops(List<Shop> shops) {
+        long seconds = TimeUnit.MINUTES.toSeconds(CACHE_SHOP_TTL);
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            for (Shop shop : shops) {
+                String key = CACHE_SHOP_KEY + shop.getId();
+                long ttl = CacheClient.jitterSeconds(seconds, prop.getTtlJitter());
+                if (bucketLayout.handles(key)) {
+                    bucketLayout.set(stringConnection, key, codecs.encode(key, shop), TimeUnit.SECONDS.toMillis(ttl));
+                } else {
+                    stringConnection.setEx(key, ttl, codecs.encode(key, shop));
+                }
+                if (shop.getTypeId() != null && shop.getX() != null && shop.getY() != null) {
+                    stringConnection.geoAdd(SHOP_GEO_KEY + shop.getTypeId(),
+                            new Point(shop.getX(), shop.getY()), shop.getId().toString());
+                }
+            }
+            return null;
+        });
+        //pipeline绕过了CacheClient，写完后通知所有节点删除本地缓存中的旧值
+        for (Shop shop : shops) {
+            cacheClient.invalidate(CACHE_SHOP_KEY + shop.getId());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        reader.shutdownNow();
+        writers.shutdownNow();
+    }
+
+    /**
+     * 预热进度
+     */
+    @Data
+    public static class Progress {
+        public static final String IDLE = "IDLE";
+        public static final String RUNNING = "RUNNING";
+        public static final String DONE = "DONE";
+        public static final String FAILED = "FAILED";
+
+        private volatile String state = IDLE;
+        /**
+         * 店铺总数
+         */
+        private volatile long total;
+        /**
+         * 已写入的店铺数
+         */
+        private volatile long shops;
+        /**
+         * 已写入的店铺类型数
+         */
+        private volatile long shopTypes;
+        private volatile long startTime;
+        private volatile long finishTime;
+        private volatile String error;
+    }
+}
@@ -0,0 +1,198 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+import com.hmdp.config.HotKeyProp;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 热点key检测
+ * 1. 读取时按采样率记录访问，计数存在 count-min sketch 中，内存固定，和key的数量无关
+ * 2. 每个统计窗口结束时所有计数减半，很久以前的访问逐渐衰减掉
+ * 3. 估计次数超过阈值的key记为热点，每个前缀只保留次数最多的topK个
+ * 热点key读到的值会写入本地的短期副本(LocalCache.promote)，不再集中访问同一个Redis分片
+ */
+@Slf4j
+@Component
+public class HotKeyDetector {
+
+    private final HotKeyProp prop;
+
+    private final int depth;
+
+    private final int mask;
+
+    /**
+     * depth行，每行width个计数，按行依次存放
+     */
+    private final AtomicLongArray counters;
+
+    /**
+     * 前缀 -> (热点key -> 估计次数)
+     */
+    private final Map<String, Map<String, Long>> hotKeys = new ConcurrentHashMap<>();
+
+    public HotKeyDetector(HotKeyProp prop) {
+        this.prop = prop;
+        this.depth = Math.max(1, prop.getSketchDepth());
+        int width = Integer.highestOneBit(Math.max(16, prop.getSketchWidth() - 1)) << 1;
+        this.mask = width - 1;
+        this.counters = new AtomicLongArray(depth * width);
+    }
+
+    /**
+     * 记录一次访问
+     * @param keyPrefix key前缀
+     * @param key 完整的key
+     */
+    public void record(String keyPrefix, String key) {
+        if (!prop.isEnabled()) {
+            return;
+        }
+        int sampleRate = prop.getSampleRate();
+        if (sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+            return;
+        }
+        long[] h = hash(key);
+        long estimate = Long.MAX_VALUE;
+        for (int i = 0; i < depth; i++) {
+            estimate = Math.min(estimate, counters.addAndGet(index(h, i), Math.max(1, sampleRate)));
+        }
+        if (estimate >= prop.getThreshold()) {
+            Map<String, Long> keys = hotKeys.get(keyPrefix);
+            if (keys == null || !keys.containsKey(key)) {
+                promote(keyPrefix, key, estimate);
+            } else {
+                keys.put(key, estimate);
+            }
+        }
+    }
+
+    /**
+     * 判断是否是热点key
+     * @param key 完整的key
+     */
+    public boolean isHot(String key) {
+        for (Map<String, Long> keys : hotKeys.values()) {
+            if (keys.containsKey(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 当前的热点key，按前缀分组，次数从高到低
+     */
+    public Map<String, List<HotKey>> report() {
+        Map<String, List<HotKey>> report = new TreeMap<>();
+        for (Map.Entry<String, Map<String, Long>> entry : hotKeys.entrySet()) {
+            List<HotKey> list = new ArrayList<>();
+            for (Map.Entry<String, Long> hot : entry.getValue().entrySet()) {
+                list.add(new HotKey(hot.getKey(), hot.getValue()));
+            }
+            if (!list.isEmpty()) {
+                list.sort(Comparator.comparingLong(HotKey::getCount).reversed());
+                report.put(entry.getKey(), list);
+            }
+        }
+        return report;
+    }
+
+    /**
+     * 加入热点key，超过topK时替换次数最少的
+     */
+    private synchronized void promote(String keyPrefix, String key, long estimate) {
+        Map<String, Long> keys = hotKeys.computeIfAbsent(keyPrefix, k -> new ConcurrentHashMap<>());
+        if (keys.size() >= prop.getTopK()) {
+            Map.Entry<String, Long> min = null;
+            for (Map.Entry<String, Long> entry : keys.entrySet()) {
+                if (min == null || entry.getValue() < min.getValue()) {
+                    min = entry;
+                }
+            }
+            if (min == null || min.getValue() >= estimate) {
+                return;
+            }
+            keys.remove(min.getKey());
+        }
+        if (keys.put(key, estimate) == null) {
+            log.info("发现热点key：{}，估计访问次数 {}", key, estimate);
+        }
+    }
+
+    /**
+     * 窗口结束，所有计数减半，重新估计热点key，低于阈值的移除
+     */
+    @Scheduled(fixedDelayString = "${hmdp.cache.hot-key.window-millis:10000}")
+    public synchronized void decay() {
+        if (!prop.isEnabled()) {
+            return;
+        }
+        // 原子地减半，不会覆盖衰减期间 record 增加的计数
+        for (int i = 0; i < counters.length(); i++) {
+            if (counters.get(i) != 0) {
+                counters.getAndUpdate(i, v -> v >> 1);
+            }
+        }
+        for (Map<String, Long> keys : hotKeys.values()) {
+            Iterator<Map.Entry<String, Long>> it = keys.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Long> entry = it.next();
+                long estimate = estimate(entry.getKey());
+                if (estimate < prop.getThreshold()) {
+                    it.remove();
+                    log.info("热点key冷却：{}", entry.getKey());
+                } else {
+                    entry.setValue(estimate);
+                }
+            }
+        }
+    }
+
+    private long estimate(String key) {
+        long[] h = hash(key);
+        long estimate = Long.MAX_VALUE;
+        for (int i = 0; i < depth; i++) {
+            estimate = Math.min(estimate, counters.get(index(h, i)));
+        }
+        return estimate;
+    }
+
+    /**
+     * key的UTF-8字节的128位murmur3哈希，分成两个64位的值
+     * 不使用32位的 String.hashCode()：hashCode相同的key在每一行都会落在同一个计数上，多行就失去了意义
+     */
+    private static long[] hash(String key) {
+        return MurmurHash.hash128(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 第i行的计数下标：h1 + i * h2 (Kirsch-Mitzenmacher)，h2为奇数保证每行不同
+     */
+    private int index(long[] h, int i) {
+        return i * (mask + 1) + (int) ((h[0] + i * (h[1] | 1)) & mask);
+    }
+
+    @Data
+    public static class HotKey {
+        private final String key;
+        /**
+         * 当前窗口的估计访问次数(包含衰减后的历史次数)
+         */
+        private final long count;
+    }
+}
@@ -0,0 +1,247 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.hmdp.config.BloomFilterProp;
+import com.hmdp.mapper.BlogMapper;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+import static com.hmdp.utils.RedisConstants.CACHE_BLOG_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+
+/**
+ * 实体id的布隆过滤器，防止缓存穿透
+ * 1. 启动时分批读取数据库中的id构建，之后定时重建，清除已经删除的id
+ * 2. 新增实体时添加id，并通过发布订阅通知其它节点
+ * 3. 过滤器构建完成之前，所有id都认为可能存在
+ */
+@Slf4j
+@Component
+public class IdBloomFilter implements MessageListener {
+
+    private final BloomFilterProp prop;
+
+    private final StringRedisTemplate redisTemplate;
+
+    private final RedisMessageListenerContainer listenerContainer;
+
+    private final ShopMapper shopMapper;
+
+    private final BlogMapper blogMapper;
+
+    /**
+     * key前缀 -> 过滤器
+     */
+    private final Map<String, Holder> holders = new ConcurrentHashMap<>();
+
+    /**
+     * 重新同步时在后台重建，不阻塞订阅线程
+     */
+    private final ExecutorService resyncExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "bloom-filter-resync");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public IdBloomFilter(BloomFilterProp prop,
+                         StringRedisTemplate redisTemplate,
+                         RedisMessageListenerContainer listenerContainer,
+                         ShopMapper shopMapper,
+                         BlogMapper blogMapper) {
+        this.prop = prop;
+        this.redisTemplate = redisTemplate;
+        this.listenerContainer = listenerContainer;
+        this.shopMapper = shopMapper;
+        this.blogMapper = blogMapper;
+    }
+
+    @PostConstruct
+    private void init() {
+        if (!prop.isEnabled()) {
+            log.info("布隆过滤器未开启");
+            return;
+        }
+        register(CACHE_SHOP_KEY, shopMapper);
+        register(CACHE_BLOG_KEY, blogMapper);
+        listenerContainer.addMessageListener(this, new ChannelTopic(prop.getChannel()));
+    }
+
+    /**
+     * 注册一个需要过滤的key前缀，id从对应的表中读取
+     */
+    private <T> void register(String keyPrefix, BaseMapper<T> mapper) {
+        Function<Long, List<Object>> idPage = lastId -> mapper.selectObjs(new QueryWrapper<T>()
+                .select("id")
+                .gt("id", lastId)
+                .orderByAsc("id")
+                .last("LIMIT " + prop.getChunkSize()));
+        holders.put(keyPrefix, new Holder(idPage, () -> mapper.selectCount(null)));
+    }
+
+    /**
+     * 判断id是否可能存在
+     * @param keyPrefix 缓存key前缀
+     * @param id 实体id
+     * @return false说明一定不存在，可以直接拒绝；没有开启或者还没构建完成返回true
+     */
+    public boolean mightContain(String keyPrefix, Object id) {
+        Holder holder = holders.get(keyPrefix);
+        if (holder == null || holder.current == null) {
+            return true;
+        }
+        Long value = toLong(id);
+        return value == null || holder.current.mightContain(value);
+    }
+
+    /**
+     * 新增了实体，添加id并通知其它节点
+     * @param keyPrefix 缓存key前缀
+     * @param id 实体id
+     */
+    public void add(String keyPrefix, Long id) {
+        if (id == null || !holders.containsKey(keyPrefix)) {
+            return;
+        }
+        addLocal(keyPrefix, id);
+        redisTemplate.convertAndSend(prop.getChannel(), keyPrefix + "|" + id);
+    }
+
+    /**
+     * 收到其它节点新增的id
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        int index = body.lastIndexOf('|');
+        if (index < 0) {
+            return;
+        }
+        Long id = toLong(body.substring(index + 1));
+        if (id != null) {
+            addLocal(body.substring(0, index), id);
+        }
+    }
+
+    private void addLocal(String keyPrefix, long id) {
+        Holder holder = holders.get(keyPrefix);
+        if (holder == null) {
+            return;
+        }
+        synchronized (holder) {
+            if (holder.current != null) {
+                holder.current.add(id);
+            }
+            // 正在重建的过滤器也要加上，避免切换后丢失
+            if (holder.building != null) {
+                holder.building.add(id);
+            }
+        }
+    }
+
+    /**
+     * 启动时构建，之后定时重建
+     */
+    @Scheduled(initialDelay = 0, fixedDelayString = "${hmdp.bloom.rebuild-interval-millis:3600000}")
+    public synchronized void rebuildAll() {
+        for (Map.Entry<String, Holder> entry : holders.entrySet()) {
+            try {
+                rebuild(entry.getKey(), entry.getValue());
+            } catch (Exception e) {
+                log.error("重建布隆过滤器{}失败", entry.getKey(), e);
+            }
+        }
+    }
+
+    /**
+     * 广播消息可能丢失过，重建一次
+     */
+    @EventListener
+    public void onResync(CacheResyncEvent event) {
+        resyncExecutor.submit(this::rebuildAll);
+    }
+
+    private void rebuild(String keyPrefix, Holder holder) {
+        long begin = System.currentTimeMillis();
+        //1.按实际数量确定过滤器大小
+        long count = holder.count.getAsLong();
+        long expected = Math.max(prop.getExpectedInsertions(), count + count / 2);
+        BloomFilter filter = new BloomFilter(expected, prop.getFpp());
+        synchronized (holder) {
+            holder.building = filter;
+        }
+        //2.按id分批读取，避免一次加载全表
+        long lastId = 0;
+        long total = 0;
+        try {
+            List<Object> ids = holder.idPage.apply(lastId);
+            while (!ids.isEmpty()) {
+                for (Object id : ids) {
+                    Long value = toLong(id);
+                    if (value != null) {
+                        filter.add(value);
+                        lastId = Math.max(lastId, value);
+                    }
+                }
+                total += ids.size();
+                ids = ids.size() < prop.getChunkSize() ? Collections.emptyList() : holder.idPage.apply(lastId);
+            }
+            //3.切换成新的过滤器
+            synchronized (holder) {
+                holder.current = filter;
+            }
+        } finally {
+            synchronized (holder) {
+                holder.building = null;
+            }
+        }
+        log.info("布隆过滤器{}构建完成，id数量={}，bitSize={}，hashCount={}，耗时{}ms",
+                keyPrefix, total, filter.bitSize(), filter.hashCount(), System.currentTimeMillis() - begin);
+    }
+
+    private static Long toLong(Object id) {
+        if (id instanceof Number) {
+            return ((Number) id).longValue();
+        }
+        try {
+            return Long.valueOf(String.valueOf(id));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static class Holder {
+        //分页读取id的函数，参数是上一批最大的id
+        private final Function<Long, List<Object>> idPage;
+        //统计总数
+        private final LongSupplier count;
+        //正在使用的过滤器
+        private volatile BloomFilter current;
+        //正在重建的过滤器
+        private volatile BloomFilter building;
+
+        private Holder(Function<Long, List<Object>> idPage, LongSupplier count) {
+            this.idPage = idPage;
+            this.count = count;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+
+import java.lang.reflect.Type;
+
+/**
+ * JSON编解码，和之前直接使用JSONUtil写入的数据格式完全一致
+ */
+public class JsonCacheCodec implements CacheCodec {
+
+    public static final String NAME = "json";
+
+    @Override
+    public char marker() {
+        return 0;
+    }
+
+    @Override
+    public boolean supports(Object value) {
+        return true;
+    }
+
+    @Override
+    public String encode(Object value) {
+        return JSONUtil.toJsonStr(value);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <R> R decode(String text, Type type) {
+        return (R) JSONUtil.toBean(text, type, true);
+    }
+}
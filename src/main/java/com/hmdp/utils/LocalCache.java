@@ -0,0 +1,276 @@
+package com.hmdp.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hmdp.config.LocalCacheProp;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 进程内的一级缓存(L1)，放在Redis(L2)之前
+ * 按key前缀划分，每个前缀一个有界的Caffeine缓存(W-TinyLFU淘汰)，存的是已经反序列化好的对象
+ * 注意：取出的对象是共享的，调用方不要修改它
+ */
+@Slf4j
+@Component
+public class LocalCache {
+
+    /**
+     * 按前缀长度倒序排列，保证最长前缀优先匹配
+     */
+    private final List<Region> regions = new ArrayList<>();
+
+    /**
+     * 暂停时不读也不写本地缓存，例如收不到集群的失效消息时
+     */
+    private volatile boolean suspended = false;
+
+    /**
+     * 每个key最后一次读到的值，只在重建超时等情况下兜底使用，不参与正常的命中
+     */
+    private final Cache<String, Object> lastKnown;
+
+    /**
+     * 检测出的热点key的短期副本，所有前缀都可以使用，和本地缓存一样会被失效广播删除
+     */
+    private final Cache<String, Object> hot;
+
+    /**
+     * 从快照恢复、还没有重新校验的key -> 值的类型，第一次命中时由CacheClient在后台校验
+     */
+    private final Map<String, Type> restored = new ConcurrentHashMap<>();
+
+    public LocalCache(LocalCacheProp prop) {
+        lastKnown = Caffeine.newBuilder()
+                .maximumSize(prop.getLastKnownSize())
+                .expireAfterWrite(prop.getLastKnownExpireSeconds(), TimeUnit.SECONDS)
+                .build();
+        hot = Caffeine.newBuilder()
+                .maximumSize(prop.getHotSize())
+                .expireAfterWrite(prop.getHotExpireSeconds(), TimeUnit.SECONDS)
+                .build();
+        if (!prop.isEnabled()) {
+            log.info("本地缓存未开启");
+            return;
+        }
+        for (LocalCacheProp.Spec spec : prop.getSpecs()) {
+            Cache<String, Object> cache = Caffeine.newBuilder()
+                    .maximumSize(spec.getMaximumSize())
+                    .expireAfterWrite(spec.getExpireSeconds(), TimeUnit.SECONDS)
+                    .build();
+            regions.add(new Region(spec.getPrefix(), cache));
+            log.info("本地缓存 {} 已开启，maximumSize={}，expireSeconds={}",
+                    spec.getPrefix(), spec.getMaximumSize(), spec.getExpireSeconds());
+        }
+        regions.sort(Comparator.comparingInt((Region r) -> r.prefix.length()).reversed());
+    }
+
+    /**
+     * 查询本地缓存
+     * @param key 完整的key
+     * @return 缓存的对象，未命中或者该前缀没有开启本地缓存返回null
+     */
+    public Object get(String key) {
+        if (suspended) {
+            return null;
+        }
+        Cache<String, Object> cache = cacheOf(key);
+        Object value = cache == null ? null : cache.getIfPresent(key);
+        return value != null ? value : hot.getIfPresent(key);
+    }
+
+    /**
+     * 写入本地缓存，该前缀没有开启本地缓存时忽略
+     * @param key 完整的key
+     * @param value 反序列化好的对象
+     */
+    public void put(String key, Object value) {
+        if (suspended) {
+            return;
+        }
+        Cache<String, Object> cache = cacheOf(key);
+        if (cache != null && value != null) {
+            cache.put(key, value);
+        }
+    }
+
+    /**
+     * 热点key写入短期副本，没有开启本地缓存的前缀也会写入
+     * @param key 完整的key
+     * @param value 反序列化好的对象
+     */
+    public void promote(String key, Object value) {
+        if (!suspended && value != null) {
+            hot.put(key, value);
+        }
+    }
+
+    /**
+     * 记录key最后一次读到的值
+     * @param key 完整的key
+     * @param value 反序列化好的对象
+     */
+    public void putLastKnown(String key, Object value) {
+        if (value != null) {
+            lastKnown.put(key, value);
+        }
+    }
+
+    /**
+     * 获取key最后一次读到的值，可能已经过期或者被删除，只能用于兜底
+     * @param key 完整的key
+     * @return 旧值，没有返回null
+     */
+    public Object getLastKnown(String key) {
+        return lastKnown.getIfPresent(key);
+    }
+
+    /**
+     * 删除本地缓存
+     * @param key 完整的key
+     */
+    public void invalidate(String key) {
+        Cache<String, Object> cache = cacheOf(key);
+        if (cache != null) {
+            cache.invalidate(key);
+        }
+        hot.invalidate(key);
+        restored.remove(key);
+    }
+
+    /**
+     * 清空所有本地缓存
+     */
+    public void invalidateAll() {
+        for (Region region : regions) {
+            region.cache.invalidateAll();
+        }
+        hot.invalidateAll();
+        restored.clear();
+    }
+
+    /**
+     * 按访问热度从高到低导出一个前缀的本地缓存，用于停机前保存快照
+     * @param prefix 配置的key前缀
+     * @param limit 最多导出的条数
+     * @return 热度从高到低的条目，该前缀没有开启本地缓存返回空列表
+     */
+    public List<Entry> hottest(String prefix, int limit) {
+        Cache<String, Object> cache = null;
+        for (Region region : regions) {
+            if (region.prefix.equals(prefix)) {
+                cache = region.cache;
+            }
+        }
+        if (cache == null) {
+            return Collections.emptyList();
+        }
+        Cache<String, Object> c = cache;
+        Map<String, Object> hottest = c.policy().eviction()
+                .map(eviction -> eviction.hottest(limit))
+                .orElse(Collections.emptyMap());
+        List<Entry> entries = new ArrayList<>(hottest.size());
+        for (Map.Entry<String, Object> e : hottest.entrySet()) {
+            long age = c.policy().expireAfterWrite()
+                    .map(expiration -> expiration.ageOf(e.getKey(), TimeUnit.MILLISECONDS).orElse(0))
+                    .orElse(0L);
+            entries.add(new Entry(e.getKey(), e.getValue(), age));
+        }
+        return entries;
+    }
+
+    /**
+     * 写入从快照恢复的值，第一次命中时需要重新校验
+     * @param key 完整的key
+     * @param value 反序列化好的对象
+     * @param type 值的类型，重新校验时用来解码Redis中的值
+     * @return 该前缀没有开启本地缓存返回false
+     */
+    public boolean restore(String key, Object value, Type type) {
+        Cache<String, Object> cache = cacheOf(key);
+        if (suspended || cache == null || value == null) {
+            return false;
+        }
+        cache.put(key, value);
+        restored.put(key, type);
+        return true;
+    }
+
+    /**
+     * 取出并清除key的恢复标记
+     * @param key 完整的key
+     * @return 从快照恢复且还没有校验过时返回值的类型，否则返回null
+     */
+    public Type takeRestored(String key) {
+        return restored.isEmpty() ? null : restored.remove(key);
+    }
+
+    public boolean isSuspended() {
+        return suspended;
+    }
+
+    public void setSuspended(boolean suspended) {
+        this.suspended = suspended;
+    }
+
+    /**
+     * 根据key找到对应前缀的本地缓存
+     */
+    private Cache<String, Object> cacheOf(String key) {
+        for (Region region : regions) {
+            if (key.startsWith(region.prefix)) {
+                return region.cache;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 导出的本地缓存条目
+     */
+    public static class Entry {
+        private final String key;
+        private final Object value;
+        /**
+         * 写入本地缓存后经过的时间(毫秒)
+         */
+        private final long ageMillis;
+
+        private Entry(String key, Object value, long ageMillis) {
+            this.key = key;
+            this.value = value;
+            this.ageMillis = ageMillis;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public Object getValue() {
+            return value;
+        }
+
+        public long getAgeMillis() {
+            return ageMillis;
+        }
+    }
+
+    private static class Region {
+        private final String prefix;
+        private final Cache<String, Object> cache;
+
+        private Region(String prefix, Cache<String, Object> cache) {
+            this.prefix = prefix;
+            this.cache = cache;
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.ParameterizedTypeImpl;
+import com.hmdp.config.LocalCacheSnapshotProp;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ClassUtils;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * 本地缓存(L1)的快照，滚动重启后节点不用从完全冷的状态开始
+ * 停机时把配置前缀中最热的条目编码后写入文件，启动时(接收请求之前)用内存映射读取并放回本地缓存
+ * 文件格式：
+ * 头部 魔数(4) + 版本(4) + 保存时间(8) + 条目数(4) + 数据长度(4) + 数据的CRC32(4)
+ * 每个条目 key + 值的类型 + 格式(普通/逻辑过期) + 写入本地缓存的时间 + 逻辑过期时间 + 重建耗时 + 编码后的值
+ * 版本不一致、校验失败的文件整体丢弃；超过TTL的条目、已经逻辑过期的条目丢弃
+ * 恢复的条目第一次命中时由CacheClient在后台读取Redis重新校验，停机期间错过的失效消息不会一直生效
+ * 文件加载后删除，异常退出没有保存新快照时不会重复加载旧文件
+ */
+@Slf4j
+@Component
+public class LocalCacheSnapshot {
+
+    private static final int MAGIC = 0x484D4C31;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_BYTES = 28;
+
+    private static final byte PLAIN = 0;
+
+    private static final byte ENVELOPE = 1;
+
+    private static final String LIST_TYPE_PREFIX = "java.util.List<";
+
+    private final LocalCacheSnapshotProp prop;
+
+    private final LocalCache localCache;
+
+    private final CacheCodecs codecs;
+
+    public LocalCacheSnapshot(LocalCacheSnapshotProp prop, LocalCache localCache, CacheCodecs codecs) {
+        this.prop = prop;
+        this.localCache = localCache;
+        this.codecs = codecs;
+    }
+
+    @PostConstruct
+    public void load() {
+        if (!prop.isEnabled()) {
+            return;
+        }
+        Path path = Paths.get(prop.getPath());
+        if (!Files.exists(path)) {
+            return;
+        }
+        try {
+            long begin = System.currentTimeMillis();
+            int restored = load(path);
+            log.info("本地缓存快照加载完成，恢复 {} 条，耗时 {} ms", restored, System.currentTimeMillis() - begin);
+        } catch (IOException | RuntimeException e) {
+            log.warn("本地缓存快照加载失败，忽略，path={}", path, e);
+        } finally {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                log.warn("删除本地缓存快照失败，path={}", path, e);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void save() {
+        if (!prop.isEnabled()) {
+            return;
+        }
+        Path path = Paths.get(prop.getPath());
+        try {
+            int saved = save(path);
+            log.info("本地缓存快照已保存，{} 条，path={}", saved, path);
+        } catch (IOException | RuntimeException e) {
+            log.warn("本地缓存快照保存失败，path={}", path, e);
+        }
+    }
+
+    /**
+     * 保存快照，先写临时文件再原子替换
+     * @return 保存的条数
+     */
+    public int save(Path path) throws IOException {
+        long now = System.currentTimeMillis();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * 1024);
+        DataOutputStream out = new DataOutputStream(bytes);
+        int count = 0;
+        for (LocalCacheSnapshotProp.Spec spec : prop.getSpecs()) {
+            for (LocalCache.Entry entry : localCache.hottest(spec.getPrefix(), spec.getMaxEntries())) {
+                if (write(out, entry, now)) {
+                    count++;
+                }
+            }
+        }
+        out.flush();
+        byte[] body = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(body);
+
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + body.length);
+            buffer.putInt(MAGIC).putInt(VERSION).putLong(now).putInt(count)
+                    .putInt(body.length).putInt((int) crc.getValue());
+            buffer.put(body);
+            buffer.force();
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return count;
+    }
+
+    /**
+     * 加载快照放回本地缓存
+     * @return 恢复的条数
+     */
+    public int load(Path path) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                log.warn("本地缓存快照文件不完整，忽略，path={}", path);
+                return 0;
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        //1.校验头部
+        if (buffer.getInt() != MAGIC) {
+            log.warn("不是本地缓存快照文件，忽略，path={}", path);
+            return 0;
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            log.warn("本地缓存快照版本 {} 和当前版本 {} 不一致，忽略", version, VERSION);
+            return 0;
+        }
+        long savedAt = buffer.getLong();
+        int count = buffer.getInt();
+        int length = buffer.getInt();
+        int checksum = buffer.getInt();
+        if (length != buffer.remaining()) {
+            log.warn("本地缓存快照长度不一致，忽略，path={}", path);
+            return 0;
+        }
+        //2.校验数据
+        byte[] body = new byte[length];
+        buffer.get(body);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        if ((int) crc.getValue() != checksum) {
+            log.warn("本地缓存快照校验失败，忽略，path={}", path);
+            return 0;
+        }
+        //3.恢复条目
+        ByteBuffer in = ByteBuffer.wrap(body);
+        long now = System.currentTimeMillis();
+        int restored = 0;
+        for (int i = 0; i < count; i++) {
+            String key = readString(in);
+            String typeName = readString(in);
+            byte kind = in.get();
+            long writeMillis = in.getLong();
+            long expireMillis = in.getLong();
+            long deltaMillis = in.getLong();
+            String payload = readString(in);
+            if (restore(key, typeName, kind, writeMillis, expireMillis, deltaMillis, payload, now)) {
+                restored++;
+            }
+        }
+        log.info("本地缓存快照保存于 {} ms之前，共 {} 条，丢弃 {} 条", now - savedAt, count, count - restored);
+        return restored;
+    }
+
+    private boolean write(DataOutputStream out, LocalCache.Entry entry, long now) throws IOException {
+        Object value = entry.getValue();
+        byte kind = PLAIN;
+        long expireMillis = 0;
+        long deltaMillis = 0;
+        if (value instanceof CacheEnvelope) {
+            CacheEnvelope envelope = (CacheEnvelope) value;
+            kind = ENVELOPE;
+            expireMillis = envelope.getExpireMillis();
+            deltaMillis = envelope.getDeltaMillis();
+            value = envelope.getData();
+        }
+        String typeName = describe(value);
+        if (typeName == null) {
+            return false;
+        }
+        writeString(out, entry.getKey());
+        writeString(out, typeName);
+        out.writeByte(kind);
+        out.writeLong(now - entry.getAgeMillis());
+        out.writeLong(expireMillis);
+        out.writeLong(deltaMillis);
+        writeString(out, codecs.encode(entry.getKey(), value));
+        return true;
+    }
+
+    private boolean restore(String key, String typeName, byte kind, long writeMillis, long expireMillis,
+                            long deltaMillis, String payload, long now) {
+        LocalCacheSnapshotProp.Spec spec = specOf(key);
+        if (spec == null || writeMillis + spec.getTtlSeconds() * 1000 <= now) {
+            return false;
+        }
+        if (kind == ENVELOPE && expireMillis <= now) {
+            return false;
+        }
+        Type type = typeOf(typeName);
+        if (type == null || payload.isEmpty()) {
+            return false;
+        }
+        Object value = codecs.decode(payload, type);
+        if (value == null) {
+            return false;
+        }
+        return localCache.restore(key, kind == ENVELOPE ? new CacheEnvelope(expireMillis, deltaMillis, value) : value, type);
+    }
+
+    private LocalCacheSnapshotProp.Spec specOf(String key) {
+        LocalCacheSnapshotProp.Spec match = null;
+        for (LocalCacheSnapshotProp.Spec spec : prop.getSpecs()) {
+            if (key.startsWith(spec.getPrefix())
+                    && (match == null || spec.getPrefix().length() > match.getPrefix().length())) {
+                match = spec;
+            }
+        }
+        return match;
+    }
+
+    /**
+     * 值的类型描述：普通对象为类名，列表为 java.util.List&lt;元素类名&gt;，其它集合不保存
+     */
+    private static String describe(Object value) {
+        if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            if (list.isEmpty() || list.get(0) == null) {
+                return null;
+            }
+            return LIST_TYPE_PREFIX + list.get(0).getClass().getName() + ">";
+        }
+        if (value == null || value instanceof Collection || value instanceof Map) {
+            return null;
+        }
+        return value.getClass().getName();
+    }
+
+    /**
+     * 解析类型描述，类已经不存在时返回null
+     */
+    private static Type typeOf(String typeName) {
+        try {
+            if (typeName.startsWith(LIST_TYPE_PREFIX) && typeName.endsWith(">")) {
+                Class<?> element = ClassUtils.forName(
+                        typeName.substring(LIST_TYPE_PREFIX.length(), typeName.length() - 1), null);
+                return new ParameterizedTypeImpl(new Type[]{element}, null, List.class);
+            }
+            return ClassUtils.forName(typeName, null);
+        } catch (ClassNotFoundException | LinkageError e) {
+            return null;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -24,14 +24,43 @@ public class RedisConstants {
     //店铺类型缓存的时间
     public static final Long CACHE_SHOP_TYPE_TTL = 30L;
 
+    //笔记缓存的常量
+    public static final String CACHE_BLOG_KEY = "cache:blog:";
+
+    //笔记缓存的时间
+    public static final Long CACHE_BLOG_TTL = 30L;
+
+    //用户缓存的常量
+    public static final String CACHE_USER_KEY = "cache:user:";
+
+    //用户缓存的时间
+    public static final Long CACHE_USER_TTL = 30L;
+
+    //用户详情缓存的常量
+    public static final String CACHE_USER_INFO_KEY = "cache:userInfo:";
+
+    //店铺优惠券列表缓存的常量，列表中不含秒杀券的库存(查询时从Redis读取)
+    public static final String CACHE_SHOP_VOUCHER_KEY = "cache:shopVoucher:";
+
     //互斥锁前缀
     public static final String LOCK_SHOP_KEY = "lock:shop:";
 
+    //其它缓存重建的互斥锁前缀，后面拼接完整的缓存key
+    public static final String LOCK_CACHE_KEY = "lock:";
+
     //设置的锁有效期
     public static final Long LOCK_SHOP_TTL = 10L;
 
     // 秒杀的库存前置
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    // 秒杀的已下单用户前置
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    // 秒杀的补货版本前置，每次补货加1，用来识别补货之前发出的售罄广播
+    public static final String SECKILL_RESTOCK_KEY = "seckill:restock:";
+    // 秒杀订单消息队列前置，每个分区为 stream.orders:{分区号}
+    public static final String SECKILL_ORDER_QUEUE = "stream.orders";
+    // 秒杀订单消费实例的成员表(zset，分数为最近一次心跳的时间)
+    public static final String SECKILL_CONSUMERS_KEY = "seckill:consumers";
 
     // 点赞前置
     public static final String BLOG_LIKED_KEY = "blog:liked:";
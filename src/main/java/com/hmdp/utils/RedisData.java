@@ -6,6 +6,7 @@ import java.time.LocalDateTime;
 
 /**
  * 具有逻辑过期时间的对象，减少对源代码的修改
+ * 旧的逻辑过期格式，现在写入使用 CacheEnvelope，这里只用于读取旧数据
  */
 @Data
 public class RedisData {
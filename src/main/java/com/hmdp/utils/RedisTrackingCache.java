@@ -0,0 +1,419 @@
+package com.hmdp.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hmdp.config.RedisTrackingProp;
+import io.lettuce.core.ClientOptions;
+import io.lettuce.core.KeyValue;
+import io.lettuce.core.RedisChannelHandler;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisConnectionStateListener;
+import io.lettuce.core.RedisFuture;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.TrackingArgs;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import io.lettuce.core.api.push.PushListener;
+import io.lettuce.core.api.push.PushMessage;
+import io.lettuce.core.codec.StringCodec;
+import io.lettuce.core.protocol.ProtocolVersion;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Redis服务端协助的客户端缓存(RESP3 CLIENT TRACKING)
+ * 1. 单独建立一个RESP3连接并开启CLIENT TRACKING，读取都走这个连接，Redis会记住本连接读过的key
+ * 2. 读到的值保存在本地，key被任何客户端修改或者过期时，Redis通过这个连接推送invalidate消息，删除本地的值
+ * 3. 读取前先登记一个令牌，invalidate消息会删除令牌，读取完成时令牌还在才写入本地，避免读取期间的修改被覆盖
+ * 4. 没有开启、连接失败或者断开时，直接使用StringRedisTemplate普通读取，断开期间的消息无法保证，重连后清空本地
+ * 不存在的key不缓存
+ */
+@Slf4j
+@Component
+public class RedisTrackingCache implements PushListener {
+
+    private final RedisTrackingProp prop;
+
+    private final RedisProperties redisProperties;
+
+    private final StringRedisTemplate redisTemplate;
+
+    private final Cache<String, Entry<?>> entries;
+
+    /**
+     * 正在读取的key -> 令牌
+     */
+    private final Map<String, Object> pending = new ConcurrentHashMap<>();
+
+    private volatile RedisClient client;
+
+    private volatile StatefulRedisConnection<String, String> connection;
+
+    private volatile boolean active = false;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder invalidationCount = new LongAdder();
+
+    public RedisTrackingCache(RedisTrackingProp prop, RedisProperties redisProperties, StringRedisTemplate redisTemplate) {
+        this.prop = prop;
+        this.redisProperties = redisProperties;
+        this.redisTemplate = redisTemplate;
+        this.entries = Caffeine.newBuilder().maximumSize(prop.getMaximumSize()).build();
+    }
+
+    @PostConstruct
+    public void start() {
+        if (prop.isEnabled()) {
+            connect();
+        }
+    }
+
+    /**
+     * 没有连接成功时定时重试
+     */
+    @Scheduled(fixedDelayString = "${hmdp.cache.tracking.reconnect-interval-millis:5000}")
+    public void reconnectIfNeeded() {
+        if (prop.isEnabled() && !active) {
+            connect();
+        }
+    }
+
+    /**
+     * 建立RESP3连接并开启CLIENT TRACKING
+     * 关闭Lettuce的自动重连：重连后的连接没有开启tracking，由reconnectIfNeeded重新建立
+     */
+    public synchronized void connect() {
+        if (active) {
+            return;
+        }
+        close();
+        try {
+            RedisURI.Builder builder = RedisURI.Builder.redis(redisProperties.getHost(), redisProperties.getPort())
+                    .withDatabase(redisProperties.getDatabase())
+                    .withTimeout(redisProperties.getTimeout() == null ? Duration.ofSeconds(2) : redisProperties.getTimeout());
+            if (redisProperties.getPassword() != null && !redisProperties.getPassword().isEmpty()) {
+                builder.withPassword(redisProperties.getPassword().toCharArray());
+            }
+            RedisClient newClient = RedisClient.create(builder.build());
+            newClient.setOptions(ClientOptions.builder()
+                    .protocolVersion(ProtocolVersion.RESP3)
+                    .autoReconnect(false)
+                    .build());
+            newClient.addListener(new RedisConnectionStateListener() {
+                @Override
+                public void onRedisDisconnected(RedisChannelHandler<?, ?> handler) {
+                    //关闭旧连接时也会收到，只处理当前的连接
+                    if (handler == connection) {
+                        deactivate("连接断开");
+                    }
+                }
+
+                @Override
+                public void onRedisExceptionCaught(RedisChannelHandler<?, ?> handler, Throwable cause) {
+                }
+            });
+            client = newClient;
+            StatefulRedisConnection<String, String> newConnection = newClient.connect();
+            newConnection.addListener(this);
+            newConnection.sync().clientTracking(TrackingArgs.Builder.enabled());
+            connection = newConnection;
+            entries.invalidateAll();
+            pending.clear();
+            active = true;
+            log.info("Redis客户端缓存(CLIENT TRACKING)已开启");
+        } catch (Exception e) {
+            log.warn("Redis客户端缓存开启失败，使用普通读取：{}", e.getMessage());
+            close();
+        }
+    }
+
+    /**
+     * 是否正在使用客户端缓存
+     */
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * GET，优先返回本地的值
+     * @param key 完整的key
+     * @return 值，不存在返回null
+     */
+    public String get(String key) {
+        if (!active) {
+            return redisTemplate.opsForValue().get(key);
+        }
+        Entry<?> entry = entries.getIfPresent(key);
+        if (entry != null && entry.value instanceof String) {
+            hitCount.increment();
+            return (String) entry.value;
+        }
+        return getWithTtl(key).getValue();
+    }
+
+    /**
+     * GET 和 PTTL，优先返回本地的值，剩余TTL根据读取时的PTTL计算
+     * @param key 完整的key
+     * @return 值和剩余TTL
+     */
+    @SuppressWarnings("unchecked")
+    public Entry<String> getWithTtl(String key) {
+        if (active) {
+            Entry<?> entry = entries.getIfPresent(key);
+            if (entry != null && entry.value instanceof String) {
+                hitCount.increment();
+                return (Entry<String>) entry;
+            }
+            missCount.increment();
+            Object token = register(key);
+            try {
+                RedisAsyncCommands<String, String> async = connection.async();
+                RedisFuture<String> value = async.get(key);
+                RedisFuture<Long> ttl = async.pttl(key);
+                Entry<String> result = new Entry<>(await(value), await(ttl));
+                store(key, token, result);
+                return result;
+            } catch (Exception e) {
+                pending.remove(key, token);
+                deactivate(e.getMessage());
+            }
+        }
+        List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) c -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) c;
+            stringConnection.get(key);
+            stringConnection.pTtl(key);
+            return null;
+        });
+        return new Entry<>((String) results.get(0), (Long) results.get(1));
+    }
+
+    /**
+     * MGET，本地没有的key一次读取
+     * @param keys 完整的key
+     * @return 按keys顺序的值，不存在的为null
+     */
+    public List<String> multiGet(List<String> keys) {
+        if (!active) {
+            List<String> values = redisTemplate.opsForValue().multiGet(keys);
+            return values == null ? Collections.nCopies(keys.size(), null) : values;
+        }
+        List<String> values = new ArrayList<>(Collections.nCopies(keys.size(), null));
+        List<Integer> missIndexes = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+            Entry<?> entry = entries.getIfPresent(keys.get(i));
+            if (entry != null && entry.value instanceof String) {
+                hitCount.increment();
+                values.set(i, (String) entry.value);
+            } else {
+                missCount.increment();
+                missIndexes.add(i);
+            }
+        }
+        if (missIndexes.isEmpty()) {
+            return values;
+        }
+        String[] missKeys = new String[missIndexes.size()];
+        Object[] tokens = new Object[missIndexes.size()];
+        for (int j = 0; j < missKeys.length; j++) {
+            missKeys[j] = keys.get(missIndexes.get(j));
+            tokens[j] = register(missKeys[j]);
+        }
+        try {
+            List<KeyValue<String, String>> loaded = connection.sync().mget(missKeys);
+            for (int j = 0; j < missKeys.length; j++) {
+                String value = loaded.get(j).getValueOrElse(null);
+                values.set(missIndexes.get(j), value);
+                store(missKeys[j], tokens[j], new Entry<>(value, -1L));
+            }
+            return values;
+        } catch (Exception e) {
+            for (int j = 0; j < missKeys.length; j++) {
+                pending.remove(missKeys[j], tokens[j]);
+            }
+            deactivate(e.getMessage());
+            List<String> fallback = redisTemplate.opsForValue().multiGet(keys);
+            return fallback == null ? Collections.nCopies(keys.size(), null) : fallback;
+        }
+    }
+
+    /**
+     * HGETALL 和 PTTL，优先返回本地的值
+     * @param key 完整的key
+     * @return hash和剩余TTL，不存在时hash为空
+     */
+    @SuppressWarnings("unchecked")
+    public Entry<Map<Object, Object>> hashEntries(String key) {
+        if (active) {
+            Entry<?> entry = entries.getIfPresent(key);
+            if (entry != null && entry.value instanceof Map) {
+                hitCount.increment();
+                return (Entry<Map<Object, Object>>) entry;
+            }
+            missCount.increment();
+            Object token = register(key);
+            try {
+                RedisAsyncCommands<String, String> async = connection.async();
+                RedisFuture<Map<String, String>> value = async.hgetall(key);
+                RedisFuture<Long> ttl = async.pttl(key);
+                Map<Object, Object> map = Collections.unmodifiableMap(await(value));
+                Entry<Map<Object, Object>> result = new Entry<>(map, await(ttl));
+                store(key, token, map.isEmpty() ? null : result);
+                return result;
+            } catch (Exception e) {
+                pending.remove(key, token);
+                deactivate(e.getMessage());
+            }
+        }
+        return new Entry<>(redisTemplate.opsForHash().entries(key), -1L);
+    }
+
+    /**
+     * 本节点修改了key，立即删除本地的值，不等Redis的推送
+     * @param key 完整的key
+     */
+    public void invalidate(String key) {
+        if (active) {
+            pending.remove(key);
+            entries.invalidate(key);
+        }
+    }
+
+    /**
+     * 批量删除本地的值
+     * @param keys 完整的key
+     */
+    public void invalidate(Collection<String> keys) {
+        for (String key : keys) {
+            invalidate(key);
+        }
+    }
+
+    /**
+     * Redis推送的invalidate消息：["invalidate", [key...]]，key列表为null表示全部失效(FLUSHALL等)
+     */
+    @Override
+    public void onPushMessage(PushMessage message) {
+        if (!"invalidate".equals(message.getType())) {
+            return;
+        }
+        invalidationCount.increment();
+        List<Object> content = message.getContent(StringCodec.UTF8::decodeKey);
+        Object keys = content.size() > 1 ? content.get(1) : null;
+        if (keys instanceof Collection) {
+            for (Object key : (Collection<?>) keys) {
+                String k = String.valueOf(key);
+                pending.remove(k);
+                entries.invalidate(k);
+            }
+        } else {
+            pending.clear();
+            entries.invalidateAll();
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    public long getInvalidationCount() {
+        return invalidationCount.sum();
+    }
+
+    private Object register(String key) {
+        Object token = new Object();
+        pending.put(key, token);
+        return token;
+    }
+
+    /**
+     * 令牌还在说明读取期间没有收到失效消息，可以写入本地；不存在的key不写入
+     */
+    private void store(String key, Object token, Entry<?> entry) {
+        if (pending.remove(key, token) && entry != null && entry.value != null) {
+            entries.put(key, entry);
+        }
+    }
+
+    private <T> T await(RedisFuture<T> future) throws Exception {
+        return future.get(connection.getTimeout().toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void deactivate(String reason) {
+        if (active) {
+            log.warn("Redis客户端缓存暂停，使用普通读取：{}", reason);
+        }
+        active = false;
+        pending.clear();
+        entries.invalidateAll();
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        active = false;
+        StatefulRedisConnection<String, String> oldConnection = connection;
+        RedisClient oldClient = client;
+        connection = null;
+        client = null;
+        try {
+            if (oldConnection != null) {
+                oldConnection.close();
+            }
+            if (oldClient != null) {
+                oldClient.shutdown();
+            }
+        } catch (Exception e) {
+            log.debug("关闭Redis客户端缓存连接失败", e);
+        }
+        entries.invalidateAll();
+        pending.clear();
+    }
+
+    /**
+     * 值和读取时的剩余TTL
+     */
+    public static class Entry<V> {
+        private final V value;
+        /**
+         * 过期的时间点(epoch毫秒)，-1表示没有TTL或者不知道
+         */
+        private final long expireAtMillis;
+
+        Entry(V value, Long ttlMillis) {
+            this.value = value;
+            this.expireAtMillis = ttlMillis == null || ttlMillis < 0 ? -1 : System.currentTimeMillis() + ttlMillis;
+        }
+
+        public V getValue() {
+            return value;
+        }
+
+        /**
+         * 剩余TTL(毫秒)，-1表示没有TTL或者不知道
+         */
+        public long getTtlMillis() {
+            return expireAtMillis < 0 ? -1 : Math.max(0, expireAtMillis - System.currentTimeMillis());
+        }
+    }
+}
@@ -25,9 +25,13 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {
     //注意这里的注入方式,这个类并不直接是归于spring管理
     private StringRedisTemplate stringRedisTemplate;
 
+    //读取token，开启客户端缓存时优先返回本地的值
+    private RedisTrackingCache trackingCache;
+
     //通过构造方法注入StringRedisTemplate
-    public RefreshTokenInterceptor(StringRedisTemplate stringRedisTemplate) {
+    public RefreshTokenInterceptor(StringRedisTemplate stringRedisTemplate, RedisTrackingCache trackingCache) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.trackingCache = trackingCache;
     }
 
     /**
@@ -50,7 +54,8 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {
         }
         //2.基于token获取redis中的对象
         String key = LOGIN_USER_KEY + token;
-        Map<Object, Object> userMap = stringRedisTemplate.opsForHash().entries(key);
+        RedisTrackingCache.Entry<Map<Object, Object>> entry = trackingCache.hashEntries(key);
+        Map<Object, Object> userMap = entry.getValue();
         //3.判断用户是否存在
         if (userMap.isEmpty()){
             return true;
@@ -60,7 +65,12 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {
         //6.存在，保存用户信息到ThreadLocal
         UserHolder.saveUser(userDTO);
         //刷新redis有效期 30min
-        stringRedisTemplate.expire(key,CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        //EXPIRE也会让Redis推送失效消息，客户端缓存模式下剩余时间还超过90%时不刷新，否则每个请求都会让本地的值失效
+        long ttlMillis = entry.getTtlMillis();
+        if (ttlMillis < 0 || ttlMillis < TimeUnit.MINUTES.toMillis(CACHE_SHOP_TTL) * 9 / 10) {
+            stringRedisTemplate.expire(key,CACHE_SHOP_TTL, TimeUnit.MINUTES);
+            trackingCache.invalidate(key);
+        }
         //6.放行
         return true;
     }
@@ -0,0 +1,221 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.config.SeckillProp;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.mapper.SeckillVoucherMapper;
+import com.hmdp.mapper.VoucherOrderMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀key迁移到带哈希标签的布局
+ * 旧的布局：seckill:stock:优惠券id、seckill:order:优惠券id、stream.orders
+ * 新的布局：seckill:stock:{分区}:优惠券id、seckill:order:{分区}:优惠券id、stream.orders:{分区}
+ * 启动时执行，已经迁移过的部分直接跳过，多个实例同时启动时只有一个执行：
+ * 1. 新的库存key不存在的秒杀券：库存取旧的库存key，没有旧key时取 tb_seckill_voucher 的库存(不修改数据库)；
+ *    已下单用户取旧的用户集合和 tb_voucher_order 中的用户的并集；先写用户集合，最后写库存，中途失败下次重新迁移
+ * 2. 旧的 stream.orders 中没有处理完的消息(pendingList和未投递的消息)按优惠券转发到对应分区后ack，全部转发后删除旧的stream
+ * 注意：要在旧版本的实例全部停止后执行，否则旧实例还会继续写旧的key；库存以数据库为准时，要先等旧的消息队列消费完
+ */
+@Slf4j
+@Component
+public class SeckillKeyMigration {
+
+    private static final String LOCK_KEY = LOCK_CACHE_KEY + "seckill:migration";
+
+    private static final int BATCH = 100;
+
+    private final SeckillProp prop;
+
+    private final StringRedisTemplate redisTemplate;
+
+    private final SeckillOrderPartitions partitions;
+
+    private final SeckillVoucherMapper seckillVoucherMapper;
+
+    private final VoucherOrderMapper voucherOrderMapper;
+
+    public SeckillKeyMigration(SeckillProp prop, StringRedisTemplate redisTemplate, SeckillOrderPartitions partitions,
+                               SeckillVoucherMapper seckillVoucherMapper, VoucherOrderMapper voucherOrderMapper) {
+        this.prop = prop;
+        this.redisTemplate = redisTemplate;
+        this.partitions = partitions;
+        this.seckillVoucherMapper = seckillVoucherMapper;
+        this.voucherOrderMapper = voucherOrderMapper;
+    }
+
+    @PostConstruct
+    private void init() {
+        if (!prop.isMigrateLegacyKeys()) {
+            return;
+        }
+        try {
+            migrate();
+        } catch (RuntimeException e) {
+            log.error("秒杀key迁移失败，下次启动时重试", e);
+        }
+    }
+
+    /**
+     * 执行迁移，其它实例正在迁移时直接返回
+     * @return 是否执行
+     */
+    public boolean migrate() {
+        Boolean locked = redisTemplate.opsForValue()
+                .setIfAbsent(LOCK_KEY, partitions.getInstanceId(), 10, TimeUnit.MINUTES);
+        if (!Boolean.TRUE.equals(locked)) {
+            log.info("其它实例正在迁移秒杀key，跳过");
+            return false;
+        }
+        try {
+            int vouchers = 0;
+            for (SeckillVoucher voucher : seckillVoucherMapper.selectList(null)) {
+                if (migrateVoucher(voucher)) {
+                    vouchers++;
+                }
+            }
+            int moved = drainLegacyQueue();
+            if (vouchers > 0 || moved > 0) {
+                log.info("秒杀key迁移完成，{} 个秒杀券，转发 {} 条订单消息", vouchers, moved);
+            }
+            return true;
+        } finally {
+            redisTemplate.delete(LOCK_KEY);
+        }
+    }
+
+    /**
+     * 迁移一个秒杀券的库存和已下单用户
+     * @return 新的库存key不存在、执行了迁移时返回true
+     */
+    private boolean migrateVoucher(SeckillVoucher voucher) {
+        Long voucherId = voucher.getVoucherId();
+        String stockKey = partitions.stockKey(voucherId);
+        if (Boolean.TRUE.equals(redisTemplate.hasKey(stockKey))) {
+            return false;
+        }
+        String legacyStockKey = SECKILL_STOCK_KEY + voucherId;
+        String legacyOrderKey = SECKILL_ORDER_KEY + voucherId;
+        //1.已下单用户：旧的集合 + 数据库中的订单
+        Set<String> users = new LinkedHashSet<>();
+        Set<String> legacyUsers = redisTemplate.opsForSet().members(legacyOrderKey);
+        if (legacyUsers != null) {
+            users.addAll(legacyUsers);
+        }
+        List<Object> orderedUsers = voucherOrderMapper.selectObjs(new QueryWrapper<VoucherOrder>()
+                .select("user_id").eq("voucher_id", voucherId));
+        for (Object userId : orderedUsers) {
+            users.add(userId.toString());
+        }
+        List<String> userList = new ArrayList<>(users);
+        for (int i = 0; i < userList.size(); i += BATCH) {
+            redisTemplate.opsForSet().add(partitions.orderKey(voucherId),
+                    userList.subList(i, Math.min(userList.size(), i + BATCH)).toArray(new String[0]));
+        }
+        //2.库存：旧的库存key，没有时取数据库
+        String stock = redisTemplate.opsForValue().get(legacyStockKey);
+        if (stock == null) {
+            stock = String.valueOf(voucher.getStock() == null ? 0 : voucher.getStock());
+        }
+        redisTemplate.opsForValue().setIfAbsent(stockKey, stock);
+        //3.删除旧的key
+        redisTemplate.delete(Arrays.asList(legacyStockKey, legacyOrderKey));
+        log.info("秒杀券 {} 迁移到 {}，库存 {}，已下单用户 {} 个", voucherId, stockKey, stock, users.size());
+        return true;
+    }
+
+    /**
+     * 把旧的 stream.orders 中没有处理完的消息转发到对应的分区
+     * @return 转发的条数
+     */
+    private int drainLegacyQueue() {
+        String legacy = SECKILL_ORDER_QUEUE;
+        if (!Boolean.TRUE.equals(redisTemplate.hasKey(legacy))) {
+            return 0;
+        }
+        String group = prop.getOrderGroup();
+        //1.没有消费者组时所有消息都没有处理过，从头创建
+        try {
+            redisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands()
+                    .xGroupCreate(legacy.getBytes(StandardCharsets.UTF_8), group, ReadOffset.from("0"), false));
+        } catch (RuntimeException e) {
+            // 消费者组已经存在
+        }
+        Consumer consumer = Consumer.from(group, "migration-" + partitions.getInstanceId());
+        int moved = 0;
+        //2.认领所有消费者的pendingList
+        while (true) {
+            PendingMessages pending = redisTemplate.opsForStream().pending(legacy, group, Range.unbounded(), BATCH);
+            List<RecordId> ids = new ArrayList<>();
+            for (PendingMessage message : pending) {
+                if (!consumer.getName().equals(message.getConsumerName())) {
+                    ids.add(message.getId());
+                }
+            }
+            if (ids.isEmpty()) {
+                break;
+            }
+            redisTemplate.execute((RedisCallback<List<RecordId>>) connection -> connection.streamCommands()
+                    .xClaimJustId(legacy.getBytes(StandardCharsets.UTF_8), group, consumer.getName(),
+                            RedisStreamCommands.XClaimOptions.minIdleMs(0).ids(ids)));
+        }
+        //3.转发自己的pendingList，再转发未投递的消息
+        moved += forward(legacy, consumer, ReadOffset.from("0"));
+        moved += forward(legacy, consumer, ReadOffset.lastConsumed());
+        //4.全部处理完后删除旧的stream
+        if (redisTemplate.opsForStream().pending(legacy, group).getTotalPendingMessages() == 0) {
+            redisTemplate.delete(legacy);
+        }
+        return moved;
+    }
+
+    private int forward(String legacy, Consumer consumer, ReadOffset offset) {
+        int moved = 0;
+        while (true) {
+            List<MapRecord<String, Object, Object>> list = redisTemplate.opsForStream().read(consumer,
+                    StreamReadOptions.empty().count(BATCH), StreamOffset.create(legacy, offset));
+            if (list == null || list.isEmpty()) {
+                return moved;
+            }
+            List<RecordId> ids = new ArrayList<>(list.size());
+            for (MapRecord<String, Object, Object> record : list) {
+                Object voucherId = record.getValue().get("voucherId");
+                if (voucherId != null) {
+                    redisTemplate.opsForStream().add(StreamRecords.mapBacked(record.getValue())
+                            .withStreamKey(partitions.queueOf(Long.valueOf(voucherId.toString()))));
+                    moved++;
+                } else {
+                    log.error("旧的订单消息没有优惠券id，丢弃：{}", record);
+                }
+                ids.add(record.getId());
+            }
+            redisTemplate.opsForStream().acknowledge(legacy, consumer.getGroup(), ids.toArray(new RecordId[0]));
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.config.SeckillProp;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀订单消息队列的分区和分配
+ * 订单按 hash(优惠券id) % partitions 写入不同的stream，写入压力分散到多个key(集群下分散到多个分片)
+ * 每个分区是独立的stream，各自有同名的消费者组
+ * <p>
+ * 分配：每个实例定期把自己写入成员表 seckill:consumers(zset，分数为心跳时间)，删除心跳超时的成员，
+ * 按实例id排序后第i个实例负责 partition % 成员数 == i 的分区；实例内再按分区的顺序轮流分给各个消费线程
+ * 实例加入或者离开后，下一次心跳时所有实例重新计算分配。切换期间两个实例可能短暂读取同一个分区，
+ * 消费者组保证每条消息只投递给一个消费者，不会重复处理；离开的实例未ack的消息空闲后由新的负责者认领
+ * <p>
+ * 秒杀相关的key都带有优惠券所在分区的哈希标签，Redis集群下同一个优惠券的库存、已下单用户和订单消息队列在同一个槽，
+ * seckill.lua 可以在一个脚本中访问；不同分区的优惠券分散到不同的分片：
+ * seckill:stock:{分区}:优惠券id、seckill:order:{分区}:优惠券id、stream.orders:{分区}
+ * 注意：优惠券的key由分区数决定，只能在没有进行中的秒杀、并且消息队列已经消费完时修改分区数
+ */
+@Slf4j
+@Component
+public class SeckillOrderPartitions {
+
+    private final SeckillProp prop;
+
+    private final StringRedisTemplate redisTemplate;
+
+    private final String instanceId;
+
+    private final int partitions;
+
+    /**
+     * 当前实例负责的分区，心跳失败时保持上一次的分配；还没有成功心跳时负责所有分区
+     */
+    private volatile List<String> assigned;
+
+    public SeckillOrderPartitions(SeckillProp prop, StringRedisTemplate redisTemplate) {
+        this.prop = prop;
+        this.redisTemplate = redisTemplate;
+        this.instanceId = StrUtil.isBlank(prop.getInstanceId())
+                ? ManagementFactory.getRuntimeMXBean().getName() : prop.getInstanceId();
+        this.partitions = Math.max(1, prop.getPartitions());
+        this.assigned = Collections.unmodifiableList(allQueues());
+    }
+
+    @PostConstruct
+    private void init() {
+        rebalance();
+    }
+
+    /**
+     * 心跳并重新计算分配
+     */
+    @Scheduled(initialDelayString = "${hmdp.seckill.rebalance-interval-millis:5000}",
+            fixedDelayString = "${hmdp.seckill.rebalance-interval-millis:5000}")
+    public void rebalance() {
+        try {
+            long now = System.currentTimeMillis();
+            //1.心跳，删除超时的成员
+            redisTemplate.opsForZSet().add(SECKILL_CONSUMERS_KEY, instanceId, now);
+            redisTemplate.opsForZSet().removeRangeByScore(SECKILL_CONSUMERS_KEY, 0,
+                    now - prop.getMemberExpireMillis());
+            //2.按实例id排序，计算自己负责的分区
+            Set<String> members = redisTemplate.opsForZSet().range(SECKILL_CONSUMERS_KEY, 0, -1);
+            List<String> sorted = members == null ? new ArrayList<>() : new ArrayList<>(members);
+            Collections.sort(sorted);
+            int index = sorted.indexOf(instanceId);
+            if (index < 0) {
+                return;
+            }
+            List<String> queues = new ArrayList<>();
+            for (int p = index; p < partitions; p += sorted.size()) {
+                queues.add(queue(p));
+            }
+            if (!queues.equals(assigned)) {
+                log.info("订单分区重新分配，{} 个实例，当前实例 {} 负责 {}", sorted.size(), instanceId, queues);
+                assigned = Collections.unmodifiableList(queues);
+            }
+        } catch (RuntimeException e) {
+            log.warn("订单分区心跳失败，保持当前的分配 {}", assigned, e);
+        }
+    }
+
+    @PreDestroy
+    private void leave() {
+        // 主动离开，其它实例下一次心跳时接管
+        try {
+            redisTemplate.opsForZSet().remove(SECKILL_CONSUMERS_KEY, instanceId);
+        } catch (RuntimeException e) {
+            log.warn("移除订单消费实例失败，等待心跳超时", e);
+        }
+    }
+
+    /**
+     * 优惠券所在的分区
+     */
+    public int partitionOf(Long voucherId) {
+        return Math.floorMod(Long.hashCode(voucherId), partitions);
+    }
+
+    /**
+     * 优惠券的哈希标签
+     */
+    public String hashTag(Long voucherId) {
+        return "{" + partitionOf(voucherId) + "}";
+    }
+
+    /**
+     * 优惠券的库存key
+     */
+    public String stockKey(Long voucherId) {
+        return SECKILL_STOCK_KEY + hashTag(voucherId) + ":" + voucherId;
+    }
+
+    /**
+     * 优惠券的补货版本key，和库存key在同一个槽
+     */
+    public String restockKey(Long voucherId) {
+        return SECKILL_RESTOCK_KEY + hashTag(voucherId) + ":" + voucherId;
+    }
+
+    /**
+     * 优惠券的已下单用户key
+     */
+    public String orderKey(Long voucherId) {
+        return SECKILL_ORDER_KEY + hashTag(voucherId) + ":" + voucherId;
+    }
+
+    /**
+     * 优惠券的订单消息队列
+     */
+    public String queueOf(Long voucherId) {
+        return queue(partitionOf(voucherId));
+    }
+
+    /**
+     * seckill.lua 的KEYS：库存、已下单用户、订单消息队列，在同一个槽
+     */
+    public List<String> seckillKeys(Long voucherId) {
+        return Arrays.asList(stockKey(voucherId), orderKey(voucherId), queueOf(voucherId));
+    }
+
+    /**
+     * 分区的消息队列
+     */
+    public String queue(int partition) {
+        return SECKILL_ORDER_QUEUE + ":{" + partition + "}";
+    }
+
+    /**
+     * 所有分区的消息队列
+     */
+    public List<String> allQueues() {
+        List<String> queues = new ArrayList<>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            queues.add(queue(i));
+        }
+        return queues;
+    }
+
+    /**
+     * 消费线程负责的消息队列：当前实例负责的分区中，按顺序轮流分给各个线程
+     * @param worker 线程序号
+     * @param workers 线程数
+     */
+    public List<String> queuesOf(int worker, int workers) {
+        List<String> current = assigned;
+        List<String> queues = new ArrayList<>();
+        for (int i = worker; i < current.size(); i += workers) {
+            queues.add(current.get(i));
+        }
+        return queues;
+    }
+
+    /**
+     * 当前实例负责的分区
+     */
+    public List<String> assigned() {
+        return assigned;
+    }
+
+    public String getInstanceId() {
+        return instanceId;
+    }
+}
@@ -0,0 +1,168 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.SeckillProp;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 秒杀券的本地售罄标记
+ * 秒杀脚本第一次返回库存不足时标记售罄并广播给所有节点，之后的请求在本地直接拒绝，不再访问Redis；
+ * 补货(新增秒杀券、补充库存)时清除标记并广播
+ * 标记有有效期，过期后重新执行一次脚本确认，漏掉广播的节点不会一直误判
+ * <p>
+ * 消息格式：'S'或'R' + 优惠券id + ':' + 补货版本
+ * 补货先增加库存再增加补货版本；标记售罄前用一次MGET同时读取库存和补货版本：
+ * 库存key不存在(还没有加载或者正在迁移)、或者库存已经大于0时不标记，
+ * 售罄消息的版本小于已经收到的补货版本，说明是补货之前发出的，直接忽略
+ */
+@Slf4j
+@Component
+public class SeckillSoldOutFlags implements MessageListener {
+
+    private static final String SOLD_OUT = "S";
+
+    private static final String RESTOCKED = "R";
+
+    private static final char GENERATION_SEPARATOR = ':';
+
+    private final SeckillProp prop;
+
+    private final StringRedisTemplate redisTemplate;
+
+    private final RedisMessageListenerContainer listenerContainer;
+
+    private final SeckillOrderPartitions partitions;
+
+    /**
+     * 优惠券id -> 标记过期的时间(epoch毫秒)
+     */
+    private final Map<Long, Long> soldOut = new ConcurrentHashMap<>();
+
+    /**
+     * 优惠券id -> 收到的最大补货版本
+     */
+    private final Map<Long, Long> restockGenerations = new ConcurrentHashMap<>();
+
+    public SeckillSoldOutFlags(SeckillProp prop, StringRedisTemplate redisTemplate,
+                               RedisMessageListenerContainer listenerContainer, SeckillOrderPartitions partitions) {
+        this.prop = prop;
+        this.redisTemplate = redisTemplate;
+        this.listenerContainer = listenerContainer;
+        this.partitions = partitions;
+    }
+
+    @PostConstruct
+    private void init() {
+        listenerContainer.addMessageListener(this, new ChannelTopic(prop.getSoldOutChannel()));
+    }
+
+    /**
+     * 是否已经售罄，只读本地内存
+     */
+    public boolean isSoldOut(Long voucherId) {
+        Long expireAt = soldOut.get(voucherId);
+        if (expireAt == null) {
+            return false;
+        }
+        if (expireAt <= System.currentTimeMillis()) {
+            soldOut.remove(voucherId, expireAt);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 秒杀脚本返回库存不足后调用：确认库存key存在并且库存确实为0，再标记售罄并通知其它节点
+     */
+    public void markSoldOut(Long voucherId) {
+        if (isSoldOut(voucherId)) {
+            // 本节点已经标记过，广播也已经发过
+            return;
+        }
+        //1.同时读取库存和补货版本(同一个槽，MGET是原子的)
+        List<String> values = redisTemplate.opsForValue()
+                .multiGet(Arrays.asList(partitions.stockKey(voucherId), partitions.restockKey(voucherId)));
+        String stock = values == null ? null : values.get(0);
+        if (stock == null) {
+            // 库存key不存在：秒杀券还没有加载到Redis或者正在迁移，不能当作售罄
+            return;
+        }
+        if (Long.parseLong(stock) > 0) {
+            // 脚本执行之后已经补货
+            return;
+        }
+        long generation = values.get(1) == null ? 0 : Long.parseLong(values.get(1));
+        //2.标记并广播
+        if (!markLocal(voucherId, generation)) {
+            return;
+        }
+        redisTemplate.convertAndSend(prop.getSoldOutChannel(), SOLD_OUT + voucherId + GENERATION_SEPARATOR + generation);
+        log.info("秒杀券 {} 已售罄，补货版本 {}", voucherId, generation);
+    }
+
+    /**
+     * 补货后调用(库存已经增加)：增加补货版本，清除标记并通知其它节点
+     */
+    public void clear(Long voucherId) {
+        Long generation = redisTemplate.opsForValue().increment(partitions.restockKey(voucherId));
+        long g = generation == null ? 0 : generation;
+        restocked(voucherId, g);
+        redisTemplate.convertAndSend(prop.getSoldOutChannel(), RESTOCKED + voucherId + GENERATION_SEPARATOR + g);
+    }
+
+    /**
+     * 收到其它节点的售罄或补货消息
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        if (body.length() < 2) {
+            return;
+        }
+        Long voucherId;
+        long generation;
+        try {
+            int separator = body.indexOf(GENERATION_SEPARATOR);
+            // 旧格式的消息没有补货版本，按0处理
+            voucherId = Long.valueOf(separator < 0 ? body.substring(1) : body.substring(1, separator));
+            generation = separator < 0 ? 0 : Long.parseLong(body.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            return;
+        }
+        if (body.startsWith(SOLD_OUT)) {
+            markLocal(voucherId, generation);
+        } else if (body.startsWith(RESTOCKED)) {
+            restocked(voucherId, generation);
+        }
+    }
+
+    /**
+     * 标记售罄，补货之前的售罄(版本小于已经收到的补货版本)忽略
+     * @return 是否标记
+     */
+    private boolean markLocal(Long voucherId, long generation) {
+        if (generation < restockGenerations.getOrDefault(voucherId, 0L)) {
+            log.info("忽略秒杀券 {} 补货之前的售罄消息，版本 {}", voucherId, generation);
+            return false;
+        }
+        soldOut.put(voucherId, System.currentTimeMillis() + prop.getSoldOutTtlMillis());
+        return true;
+    }
+
+    private void restocked(Long voucherId, long generation) {
+        restockGenerations.merge(voucherId, generation, Math::max);
+        soldOut.remove(voucherId);
+    }
+}
@@ -0,0 +1,69 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * JVM内的请求合并：同一个key同一时刻只有一个线程真正执行加载，其它线程等待同一个结果
+ */
+public class SingleFlight {
+
+    /**
+     * 正在执行中的加载任务
+     */
+    private final ConcurrentMap<String, CompletableFuture<Object>> calls = new ConcurrentHashMap<>();
+
+    /**
+     * 执行加载
+     * @param key 合并的key
+     * @param loader 加载函数，只会在抢到执行权的线程中调用
+     * @param timeout 等待其它线程结果的最长时间
+     * @param unit 时间单位
+     * @return 加载的结果
+     * @param <R> 结果类型
+     * @throws TimeoutException 等待超时
+     */
+    @SuppressWarnings("unchecked")
+    public <R> R execute(String key, Supplier<R> loader, long timeout, TimeUnit unit) throws TimeoutException {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> running = calls.putIfAbsent(key, future);
+        if (running == null) {
+            //1.抢到执行权，自己加载
+            try {
+                R r = loader.get();
+                future.complete(r);
+                return r;
+            } catch (RuntimeException | Error e) {
+                future.completeExceptionally(e);
+                throw e;
+            } finally {
+                calls.remove(key, future);
+            }
+        }
+        //2.已经有线程在加载，等待它的结果
+        try {
+            return (R) running.get(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * 当前正在加载的key数量
+     */
+    public int inFlight() {
+        return calls.size();
+    }
+}
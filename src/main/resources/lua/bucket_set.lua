@@ -0,0 +1,22 @@
+-- 哈希分桶写入一个字段
+-- KEYS[1] 桶的key
+-- ARGV[1] 字段(id)，ARGV[2] 值('过期时间:数据')，ARGV[3] TTL(毫秒)，ARGV[4] 当前时间(epoch毫秒)
+local now = tonumber(ARGV[4])
+
+-- 顺便删除已经过期的字段，桶很小，遍历的代价可以接受
+local entries = redis.call('hgetall', KEYS[1])
+for i = 1, #entries, 2 do
+    local expire = tonumber(string.match(entries[i + 1], '^(%d+):'))
+    if expire == nil or expire <= now then
+        redis.call('hdel', KEYS[1], entries[i])
+    end
+end
+
+redis.call('hset', KEYS[1], ARGV[1], ARGV[2])
+
+-- 桶的TTL取所有字段中最晚的过期时间，没有人访问的桶整体过期
+local ttl = tonumber(ARGV[3])
+if redis.call('pttl', KEYS[1]) < ttl then
+    redis.call('pexpire', KEYS[1], ttl)
+end
+return 1
@@ -1,3 +1,4 @@
+-- 所有的key通过KEYS传入，并且带有相同的哈希标签，Redis集群下在同一个槽
 -- 1.参数列表：
 -- 1.1 优惠券id
 local voucherId = ARGV[1]
@@ -7,14 +8,17 @@ local userId = ARGV[2]
 local orderId = ARGV[3]
 
 -- 2.数据key
--- 2.1.库存key
-local stockKey = 'seckill:stock:'.. voucherId
--- 2.2.订单key
-local orderKey = 'seckill:order:'.. voucherId
+-- 2.1.库存key seckill:stock:{分区}:优惠券id
+local stockKey = KEYS[1]
+-- 2.2.订单key seckill:order:{分区}:优惠券id
+local orderKey = KEYS[2]
+-- 2.3.订单消息队列 stream.orders:{分区}
+local queueKey = KEYS[3]
 
 -- 3.脚本业务
--- 3.1 判断库存是否充足 get stockKey
-if (tonumber(redis.call('get',stockKey)) <= 0) then
+-- 3.1 判断库存是否充足 get stockKey，没有库存key(不是秒杀券)也当作库存不足
+local stock = tonumber(redis.call('get',stockKey))
+if (stock == nil or stock <= 0) then
         -- 3.1.1 库存不足
         return 1
 end
@@ -30,7 +34,7 @@ redis.call('incrby',stockKey,-1)
 -- 3.5 下单 (保存用户) sadd orderKey userId
 redis.call('sadd',orderKey,userId)
 
--- 3.6 发送消息到队列之中 XADD stream.orders * k1 v1 k2 v2
-redis.call('xadd','stream.orders','*','userId',userId,'voucherId',voucherId,'id',orderId)
+-- 3.6 发送消息到优惠券所在分区的队列之中 XADD stream.orders:{分区} * k1 v1 k2 v2
+redis.call('xadd',queueKey,'*','userId',userId,'voucherId',voucherId,'id',orderId)
 
 return 0
@@ -0,0 +1,213 @@
+package com.hmdp;
+
+import com.hmdp.config.CacheBucketProp;
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.BinaryCacheCodec;
+import com.hmdp.utils.CacheBucketLayout;
+import com.hmdp.utils.CacheCodec;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * 哈希分桶存储的测试和内存基准，需要本地的Redis
+ * 默认连接 localhost:6379，可以通过 -Dredis.host -Dredis.port -Dredis.password 修改，连接不上时跳过
+ * 基准的数据量通过 -Dbench.entities 修改，默认10万个店铺
+ */
+@Slf4j
+class CacheBucketLayoutTests {
+
+    private static final String PREFIX = "test:bucket:shop:";
+
+    private static final String STRING_PREFIX = "test:string:shop:";
+
+    private LettuceConnectionFactory factory;
+
+    private StringRedisTemplate redisTemplate;
+
+    private CacheBucketLayout layout;
+
+    private final Set<String> written = new HashSet<>();
+
+    @BeforeEach
+    void setUp() {
+        RedisStandaloneConfiguration configuration = new RedisStandaloneConfiguration(
+                System.getProperty("redis.host", "localhost"), Integer.parseInt(System.getProperty("redis.port", "6379")));
+        if (System.getProperty("redis.password") != null) {
+            configuration.setPassword(System.getProperty("redis.password"));
+        }
+        factory = new LettuceConnectionFactory(configuration);
+        factory.afterPropertiesSet();
+        redisTemplate = new StringRedisTemplate(factory);
+        boolean available;
+        try {
+            available = "PONG".equals(redisTemplate.execute(RedisConnection::ping));
+        } catch (RuntimeException e) {
+            available = false;
+        }
+        assumeTrue(available, "本地没有可用的Redis，跳过");
+
+        CacheBucketProp prop = new CacheBucketProp();
+        prop.setPrefixes(Arrays.asList(PREFIX));
+        prop.setBucketSize(100);
+        layout = new CacheBucketLayout(prop, redisTemplate);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (!written.isEmpty()) {
+            List<String> keys = new ArrayList<>(written);
+            for (int i = 0; i < keys.size(); i += 1000) {
+                redisTemplate.delete(keys.subList(i, Math.min(keys.size(), i + 1000)));
+            }
+        }
+        factory.destroy();
+    }
+
+    @Test
+    void getSetDeleteWithExpiry() throws InterruptedException {
+        String key = PREFIX + 12345;
+        written.add(layout.bucketKey(key));
+        assertTrue(layout.handles(key));
+        assertFalse(layout.handles(PREFIX + "abc"));
+        assertFalse(layout.handles("cache:blog:1"));
+        assertEquals(PREFIX + "b:123", layout.bucketKey(key));
+
+        layout.set(key, "v1", 60_000);
+        assertEquals("v1", layout.get(key));
+        long ttl = layout.getWithTtl(key).getTtlMillis();
+        assertTrue(ttl > 50_000 && ttl <= 60_000);
+        // 空值缓存
+        layout.set(PREFIX + 12346, "", 60_000);
+        assertEquals("", layout.get(PREFIX + 12346));
+        assertEquals(Arrays.asList("v1", "", null),
+                layout.multiGet(Arrays.asList(key, PREFIX + 12346, PREFIX + 12347)));
+
+        layout.delete(key);
+        assertNull(layout.get(key));
+
+        // 单个字段过期，同一个桶的其它字段不受影响
+        layout.set(key, "v2", 50);
+        Thread.sleep(100);
+        assertNull(layout.get(key));
+        assertEquals("", layout.get(PREFIX + 12346));
+        // 桶的TTL取最晚的过期时间
+        Long bucketTtl = redisTemplate.getExpire(layout.bucketKey(key), TimeUnit.MILLISECONDS);
+        assertTrue(bucketTtl != null && bucketTtl > 50_000);
+    }
+
+    @Test
+    void benchmarkMemory() {
+        int entities = Integer.getInteger("bench.entities", 100_000);
+        // listpack要求单个值不超过 hash-max-listpack-value，新旧版本的配置名不同
+        configSet("hash-max-listpack-value", "1024");
+        configSet("hash-max-ziplist-value", "1024");
+        CacheCodec codec = new BinaryCacheCodec();
+        List<String> values = new ArrayList<>(entities);
+        long valueBytes = 0;
+        for (int i = 1; i <= entities; i++) {
+            String value = codec.encode(shop(i));
+            values.add(value);
+            valueBytes += value.getBytes(StandardCharsets.UTF_8).length;
+        }
+
+        //1.一个店铺一个string key
+        long before = usedMemory();
+        for (int begin = 0; begin < entities; begin += 1000) {
+            int from = begin;
+            int to = Math.min(entities, begin + 1000);
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection stringConnection = (StringRedisConnection) connection;
+                for (int i = from; i < to; i++) {
+                    stringConnection.setEx(STRING_PREFIX + (i + 1), 1800, values.get(i));
+                }
+                return null;
+            });
+            for (int i = from; i < to; i++) {
+                written.add(STRING_PREFIX + (i + 1));
+            }
+        }
+        long stringBytes = usedMemory() - before;
+
+        //2.哈希分桶
+        before = usedMemory();
+        for (int begin = 0; begin < entities; begin += 1000) {
+            int from = begin;
+            int to = Math.min(entities, begin + 1000);
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection stringConnection = (StringRedisConnection) connection;
+                for (int i = from; i < to; i++) {
+                    layout.set(stringConnection, PREFIX + (i + 1), values.get(i), TimeUnit.MINUTES.toMillis(30));
+                }
+                return null;
+            });
+            for (int i = from; i < to; i++) {
+                written.add(layout.bucketKey(PREFIX + (i + 1)));
+            }
+        }
+        long bucketBytes = usedMemory() - before;
+        String encoding = redisTemplate.execute((RedisCallback<String>) connection ->
+                String.valueOf(connection.encodingOf(layout.bucketKey(PREFIX + 1).getBytes(StandardCharsets.UTF_8))));
+
+        log.info("{} 个店铺，平均值长度 {} 字节", entities, valueBytes / entities);
+        log.info("string key：{} 字节，平均 {} 字节/个", stringBytes, stringBytes / entities);
+        log.info("哈希分桶({})：{} 字节，平均 {} 字节/个，节省 {}%", encoding, bucketBytes, bucketBytes / entities,
+                stringBytes <= 0 ? 0 : 100 - bucketBytes * 100 / stringBytes);
+        assertEquals(values.get(0), layout.get(PREFIX + 1));
+    }
+
+    private Shop shop(long id) {
+        return new Shop()
+                .setId(id)
+                .setName("店铺" + id)
+                .setTypeId(id % 10 + 1)
+                .setImages("https://qcloud.dpfile.com/pc/" + id + ".jpg")
+                .setArea("大关")
+                .setAddress("金华路锦昌文华苑" + id % 100 + "号")
+                .setX(120 + id % 1000 / 1000.0)
+                .setY(30 + id % 997 / 1000.0)
+                .setAvgPrice(id % 200)
+                .setSold((int) (id % 5000))
+                .setComments((int) (id % 3000))
+                .setScore((int) (id % 50))
+                .setOpenHours("10:00-22:00")
+                .setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39))
+                .setUpdateTime(LocalDateTime.of(2022, 1, 13, 17, 32, 19));
+    }
+
+    private long usedMemory() {
+        Properties info = redisTemplate.execute((RedisCallback<Properties>) connection -> connection.info("memory"));
+        return Long.parseLong(info.getProperty("used_memory"));
+    }
+
+    private void configSet(String name, String value) {
+        try {
+            redisTemplate.execute((RedisCallback<Object>) connection -> {
+                connection.setConfig(name, value);
+                return null;
+            });
+        } catch (RuntimeException e) {
+            log.info("Redis不支持配置 {}，忽略", name);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.hmdp;
+
+import cn.hutool.core.lang.TypeReference;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.BinaryCacheCodec;
+import com.hmdp.utils.CacheCodec;
+import com.hmdp.utils.JsonCacheCodec;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Type;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * 缓存编解码的基准测试：hutool JSON 和 二进制编码 对比
+ * 不依赖Spring容器；编解码的正确性测试始终执行，基准测试耗时较长，默认跳过，
+ * 通过 -Dbench.codec=true 开启，例如：mvn test -Dtest=CacheCodecBenchmarkTests -Dbench.codec=true
+ */
+@Slf4j
+class CacheCodecBenchmarkTests {
+
+    private static final int ROUNDS = 200000;
+    private static final int LIST_ROUNDS = 10000;
+
+    private final CacheCodec binary = new BinaryCacheCodec();
+    private final CacheCodec json = new JsonCacheCodec();
+
+    private static final Type SHOP_LIST = new TypeReference<List<Shop>>() {
+    }.getType();
+
+    private Shop shop() {
+        return new Shop()
+                .setId(1L)
+                .setName("103茶餐厅")
+                .setTypeId(1L)
+                .setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg")
+                .setArea("大关")
+                .setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192)
+                .setY(30.316078)
+                .setAvgPrice(80L)
+                .setSold(4215)
+                .setComments(3035)
+                .setScore(37)
+                .setOpenHours("10:00-22:00")
+                .setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39))
+                .setUpdateTime(LocalDateTime.of(2022, 1, 13, 17, 32, 19));
+    }
+
+    private Blog blog() {
+        return new Blog()
+                .setId(4L)
+                .setShopId(4L)
+                .setUserId(2L)
+                .setTitle("无尽浪漫的夜晚丨在万花丛中摇晃着红酒杯🍷品战斧牛排🥩")
+                .setImages("/imgs/blogs/7/14/4771fefb-1a87-4252-816c-9f7ec41ffa4a.jpg,/imgs/blogs/4/10/2f07e3c9-ddce-482d-9ea7-c21450f8d7cd.jpg")
+                .setContent("生活就是一半烟火·一半诗意<br/>手执烟火谋生活·心怀诗意以谋爱·<br/>当然<br/>男朋友给不了的浪漫要学会自己给🍒<br/>")
+                .setLiked(1)
+                .setComments(104)
+                .setCreateTime(LocalDateTime.of(2021, 12, 28, 19, 50, 1))
+                .setUpdateTime(LocalDateTime.of(2022, 3, 10, 14, 26, 34));
+    }
+
+    @Test
+    void roundTrip() {
+        Shop shop = shop();
+        assertEquals(shop, binary.decode(binary.encode(shop), Shop.class));
+        Blog blog = blog();
+        assertEquals(blog, binary.decode(binary.encode(blog), Blog.class));
+        // 旧格式的JSON数据仍然可以读取
+        assertEquals(shop, json.decode(JSONUtil.toJsonStr(shop), Shop.class));
+        // 类型不一致(指纹不同)当作未命中
+        assertNull(binary.decode(binary.encode(shop), Blog.class));
+    }
+
+    private List<Shop> shops() {
+        List<Shop> shops = new ArrayList<>();
+        for (long i = 1; i <= 20; i++) {
+            shops.add(shop().setId(i));
+        }
+        return shops;
+    }
+
+    @Test
+    void roundTripList() {
+        List<Shop> shops = shops();
+        assertEquals(shops, binary.decode(binary.encode(shops), SHOP_LIST));
+        assertEquals(shops, json.decode(JSONUtil.toJsonStr(shops), SHOP_LIST));
+        // 列表和单个对象的格式不能混用
+        assertNull(binary.decode(binary.encode(shops), Shop.class));
+        assertNull(binary.decode(binary.encode(shop()), SHOP_LIST));
+    }
+
+    @Test
+    void benchmarkShop() {
+        Shop shop = shop();
+        bench("Shop hutool", shop, JSONUtil::toJsonStr, text -> JSONUtil.toBean(text, Shop.class));
+        bench("Shop binary", shop, binary::encode, text -> binary.decode(text, Shop.class));
+    }
+
+    @Test
+    void benchmarkBlog() {
+        Blog blog = blog();
+        bench("Blog hutool", blog, JSONUtil::toJsonStr, text -> JSONUtil.toBean(text, Blog.class));
+        bench("Blog binary", blog, binary::encode, text -> binary.decode(text, Blog.class));
+    }
+
+    @Test
+    void benchmarkShopList() {
+        List<Shop> shops = shops();
+        bench("List<Shop> hutool", shops, JSONUtil::toJsonStr, text -> json.decode(text, SHOP_LIST), LIST_ROUNDS);
+        bench("List<Shop> binary", shops, binary::encode, text -> binary.decode(text, SHOP_LIST), LIST_ROUNDS);
+    }
+
+    private <T> void bench(String name, T value, Function<T, String> encoder, Function<String, T> decoder) {
+        bench(name, value, encoder, decoder, ROUNDS);
+    }
+
+    private <T> void bench(String name, T value, Function<T, String> encoder, Function<String, T> decoder, int rounds) {
+        assumeTrue(Boolean.getBoolean("bench.codec"), "没有开启 -Dbench.codec，跳过基准测试");
+        String text = encoder.apply(value);
+        // 预热
+        for (int i = 0; i < rounds / 10; i++) {
+            decoder.apply(encoder.apply(value));
+        }
+        long begin = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            text = encoder.apply(value);
+        }
+        long encodeNanos = System.nanoTime() - begin;
+        begin = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            decoder.apply(text);
+        }
+        long decodeNanos = System.nanoTime() - begin;
+        log.info("{}：长度 {}，编码 {} ns/op，解码 {} ns/op",
+                name, text.length(), encodeNanos / rounds, decodeNanos / rounds);
+    }
+}
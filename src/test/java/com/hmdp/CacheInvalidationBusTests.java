@@ -0,0 +1,151 @@
+package com.hmdp;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.config.CacheInvalidationProp;
+import com.hmdp.config.LocalCacheProp;
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.CacheInvalidationBus;
+import com.hmdp.utils.CacheResyncEvent;
+import com.hmdp.utils.LocalCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 本地缓存失效广播：攒批发送、序号不连续、心跳丢失后的暂停和恢复
+ * 不依赖Redis和Spring容器，发送的消息记录在内存中，收到的消息直接调用 onMessage 模拟
+ */
+class CacheInvalidationBusTests {
+
+    private final List<CacheInvalidationBus.InvalidationMessage> sent = new ArrayList<>();
+
+    private final List<Object> events = new ArrayList<>();
+
+    private CacheInvalidationProp prop;
+
+    private LocalCache localCache;
+
+    private CacheInvalidationBus bus;
+
+    @BeforeEach
+    void setUp() {
+        LocalCacheProp localProp = new LocalCacheProp();
+        LocalCacheProp.Spec spec = new LocalCacheProp.Spec();
+        spec.setPrefix("cache:shop:");
+        localProp.getSpecs().add(spec);
+        localCache = new LocalCache(localProp);
+
+        prop = new CacheInvalidationProp();
+        prop.setMaxBatchSize(2);
+        // 测试中不自动发送心跳
+        prop.setHeartbeatMillis(Long.MAX_VALUE);
+        StringRedisTemplate redisTemplate = new StringRedisTemplate() {
+            @Override
+            public void convertAndSend(String channel, Object message) {
+                sent.add(JSONUtil.toBean(message.toString(), CacheInvalidationBus.InvalidationMessage.class));
+            }
+        };
+        bus = new CacheInvalidationBus(redisTemplate, null, localCache, prop, events::add);
+    }
+
+    @Test
+    void publishAndFlushInBatches() {
+        localCache.put("cache:shop:1", new Shop().setId(1L));
+        bus.publish("cache:shop:1");
+        bus.publish("cache:shop:1");
+        bus.publish("cache:shop:2");
+        bus.publish("cache:shop:3");
+        // 本节点立即删除，消息要等到下一个批次
+        assertNull(localCache.get("cache:shop:1"));
+        assertTrue(sent.isEmpty());
+
+        ReflectionTestUtils.invokeMethod(bus, "flush");
+        // 重复的key合并，每条消息最多 maxBatchSize 个key，序号连续
+        assertEquals(2, sent.size());
+        List<String> keys = new ArrayList<>();
+        for (CacheInvalidationBus.InvalidationMessage message : sent) {
+            assertTrue(message.getKeys().size() <= prop.getMaxBatchSize());
+            keys.addAll(message.getKeys());
+        }
+        assertEquals(3, keys.size());
+        assertEquals(new HashSet<>(Arrays.asList("cache:shop:1", "cache:shop:2", "cache:shop:3")), new HashSet<>(keys));
+        assertEquals(1, sent.get(0).getSeq());
+        assertEquals(2, sent.get(1).getSeq());
+
+        // 没有等待的key时不发送
+        ReflectionTestUtils.invokeMethod(bus, "flush");
+        assertEquals(2, sent.size());
+    }
+
+    @Test
+    void sequenceGapInvalidatesAll() {
+        localCache.put("cache:shop:1", new Shop().setId(1L));
+        localCache.put("cache:shop:2", new Shop().setId(2L));
+
+        bus.onMessage(message("other", 1, "cache:shop:1"));
+        assertNull(localCache.get("cache:shop:1"));
+        assertNotNull(localCache.get("cache:shop:2"));
+
+        // 序号连续，只删除消息中的key
+        localCache.put("cache:shop:1", new Shop().setId(1L));
+        bus.onMessage(message("other", 2));
+        assertNotNull(localCache.get("cache:shop:1"));
+        assertNotNull(localCache.get("cache:shop:2"));
+
+        // 跳过了序号3，说明漏了消息，清空本地缓存
+        bus.onMessage(message("other", 4));
+        assertNull(localCache.get("cache:shop:1"));
+        assertNull(localCache.get("cache:shop:2"));
+
+        // 新节点的第一条消息不算漏消息
+        localCache.put("cache:shop:1", new Shop().setId(1L));
+        bus.onMessage(message("another", 7));
+        assertNotNull(localCache.get("cache:shop:1"));
+    }
+
+    @Test
+    void suspendAndResumeOnHeartbeatLoss() throws InterruptedException {
+        prop.setMissedWindowMillis(50);
+        localCache.put("cache:shop:1", new Shop().setId(1L));
+        bus.onMessage(message("other", 1));
+
+        // 时间窗口内收到过消息，不暂停
+        ReflectionTestUtils.invokeMethod(bus, "tick");
+        assertFalse(localCache.isSuspended());
+        assertNotNull(localCache.get("cache:shop:1"));
+
+        // 超过时间窗口没有收到消息，清空并暂停本地缓存
+        Thread.sleep(100);
+        ReflectionTestUtils.invokeMethod(bus, "tick");
+        assertTrue(localCache.isSuspended());
+        localCache.setSuspended(false);
+        assertNull(localCache.get("cache:shop:1"));
+        localCache.setSuspended(true);
+
+        // 重新收到消息后恢复，并通知监听者重新同步；断开期间的序号不再比较
+        bus.onMessage(message("other", 9));
+        assertFalse(localCache.isSuspended());
+        assertEquals(1, events.size());
+        assertTrue(events.get(0) instanceof CacheResyncEvent);
+        localCache.put("cache:shop:1", new Shop().setId(1L));
+        bus.onMessage(message("other", 10));
+        assertNotNull(localCache.get("cache:shop:1"));
+    }
+
+    private String message(String node, long seq, String... keys) {
+        CacheInvalidationBus.InvalidationMessage message = new CacheInvalidationBus.InvalidationMessage();
+        message.setNode(node);
+        message.setSeq(seq);
+        message.setKeys(keys.length == 0 ? Collections.emptyList() : Arrays.asList(keys));
+        return JSONUtil.toJsonStr(message);
+    }
+}
@@ -20,10 +20,13 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
 import static com.hmdp.utils.RedisConstants.SHOP_GEO_KEY;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 @SpringBootTest
 @Slf4j
@@ -194,4 +197,82 @@ class HmDianPingApplicationTests {
             stringRedisTemplate.opsForGeo().add(key,locations);
         }
     }
+
+    /**
+     * 热点key下三种防击穿策略的对比：互斥锁、逻辑过期、概率提前过期(XFetch)
+     * 50个线程持续读取同一个key，TTL 2秒，模拟查询数据库耗时20ms，统计吞吐量、延迟和查询数据库的次数
+     * 需要可用的Redis和MySQL，每种策略运行10秒，默认跳过，通过 -Dbench.hotkey=true 开启
+     * 结果和机器、网络、Redis部署方式有关，只用于在目标环境中对比，不代表哪种策略一定更好
+     */
+    @Test
+    void benchmarkHotKeyStrategies() throws Exception {
+        assumeTrue(Boolean.getBoolean("bench.hotkey"), "没有开启 -Dbench.hotkey，跳过基准测试");
+        String prefix = "cache:bench:";
+        long ttlSeconds = 2;
+        AtomicInteger dbCalls = new AtomicInteger();
+        Function<Long, Shop> dbFallback = id -> {
+            dbCalls.incrementAndGet();
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new Shop().setId(id).setName("bench").setTypeId(1L);
+        };
+
+        stringRedisTemplate.delete(prefix + 1L);
+        runHotKey("mutex", dbCalls, () -> cacheClient.queryWithMutex(
+                prefix, 1L, Shop.class, dbFallback, ttlSeconds, TimeUnit.SECONDS));
+
+        stringRedisTemplate.delete(prefix + 2L);
+        // 逻辑过期需要提前写入
+        cacheClient.setWithLogicalExpire(prefix + 2L, dbFallback.apply(2L), ttlSeconds, TimeUnit.SECONDS);
+        runHotKey("logical-expire", dbCalls, () -> cacheClient.queryWithLogicalExpire(
+                prefix, 2L, Shop.class, dbFallback, ttlSeconds, TimeUnit.SECONDS));
+
+        stringRedisTemplate.delete(prefix + 3L);
+        runHotKey("xfetch", dbCalls, () -> cacheClient.queryWithProbabilisticExpire(
+                prefix, 3L, Shop.class, dbFallback, ttlSeconds, TimeUnit.SECONDS));
+    }
+
+    private void runHotKey(String name, AtomicInteger dbCalls, Callable<Shop> query) throws Exception {
+        int threads = 50;
+        long durationMillis = 10000;
+        dbCalls.set(0);
+        long deadline = System.currentTimeMillis() + durationMillis;
+        List<Future<long[]>> futures = new ArrayList<>(threads);
+        for (int t = 0; t < threads; t++) {
+            futures.add(es.submit(() -> {
+                List<Long> latencies = new ArrayList<>();
+                long misses = 0;
+                while (System.currentTimeMillis() < deadline) {
+                    long begin = System.nanoTime();
+                    if (query.call() == null) {
+                        misses++;
+                    }
+                    latencies.add(System.nanoTime() - begin);
+                }
+                long[] result = new long[latencies.size() + 1];
+                result[0] = misses;
+                for (int i = 0; i < latencies.size(); i++) {
+                    result[i + 1] = latencies.get(i);
+                }
+                return result;
+            }));
+        }
+        List<Long> all = new ArrayList<>();
+        long misses = 0;
+        for (Future<long[]> future : futures) {
+            long[] result = future.get();
+            misses += result[0];
+            for (int i = 1; i < result.length; i++) {
+                all.add(result[i]);
+            }
+        }
+        all.sort(null);
+        log.info("{}：{} 次/秒，p50 {} µs，p99 {} µs，max {} µs，返回null {} 次，查询数据库 {} 次",
+                name, all.size() * 1000L / durationMillis,
+                all.get(all.size() / 2) / 1000, all.get((int) (all.size() * 0.99)) / 1000,
+                all.get(all.size() - 1) / 1000, misses, dbCalls.get());
+    }
 }
@@ -0,0 +1,96 @@
+package com.hmdp;
+
+import com.hmdp.config.CacheCodecProp;
+import com.hmdp.config.LocalCacheProp;
+import com.hmdp.config.LocalCacheSnapshotProp;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.utils.CacheCodecs;
+import com.hmdp.utils.CacheEnvelope;
+import com.hmdp.utils.LocalCache;
+import com.hmdp.utils.LocalCacheSnapshot;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.ParameterizedType;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 本地缓存快照的保存和加载，不依赖Redis和Spring容器
+ */
+class LocalCacheSnapshotTests {
+
+    @TempDir
+    Path dir;
+
+    private LocalCache localCache() {
+        LocalCacheProp prop = new LocalCacheProp();
+        for (String prefix : Arrays.asList("cache:shop:", "cache:shopType:")) {
+            LocalCacheProp.Spec spec = new LocalCacheProp.Spec();
+            spec.setPrefix(prefix);
+            prop.getSpecs().add(spec);
+        }
+        return new LocalCache(prop);
+    }
+
+    private LocalCacheSnapshot snapshot(LocalCache localCache) {
+        LocalCacheSnapshotProp prop = new LocalCacheSnapshotProp();
+        for (String prefix : Arrays.asList("cache:shop:", "cache:shopType:")) {
+            LocalCacheSnapshotProp.Spec spec = new LocalCacheSnapshotProp.Spec();
+            spec.setPrefix(prefix);
+            prop.getSpecs().add(spec);
+        }
+        CacheCodecProp codecProp = new CacheCodecProp();
+        CacheCodecProp.Spec codecSpec = new CacheCodecProp.Spec();
+        codecSpec.setPrefix("cache:shop:");
+        codecSpec.setCodec("binary");
+        codecProp.getSpecs().add(codecSpec);
+        return new LocalCacheSnapshot(prop, localCache, new CacheCodecs(codecProp));
+    }
+
+    @Test
+    void saveAndLoad() throws IOException {
+        LocalCache before = localCache();
+        Shop shop = new Shop().setId(1L).setName("103茶餐厅").setX(120.149192).setY(30.316078);
+        List<ShopType> types = Arrays.asList(new ShopType().setId(1L).setName("美食"), new ShopType().setId(2L).setName("KTV"));
+        before.put("cache:shop:1", shop);
+        before.put("cache:shop:2", new CacheEnvelope(System.currentTimeMillis() + 60_000, new Shop().setId(2L)));
+        // 已经逻辑过期的条目不恢复
+        before.put("cache:shop:3", new CacheEnvelope(System.currentTimeMillis() - 1, new Shop().setId(3L)));
+        before.put("cache:shopType:", types);
+        Path path = dir.resolve("l1.bin");
+        assertEquals(4, snapshot(before).save(path));
+
+        LocalCache after = localCache();
+        assertEquals(3, snapshot(after).load(path));
+        assertEquals(shop, after.get("cache:shop:1"));
+        assertEquals(2L, ((Shop) ((CacheEnvelope) after.get("cache:shop:2")).getData()).getId());
+        assertNull(after.get("cache:shop:3"));
+        assertEquals(types, after.get("cache:shopType:"));
+        // 恢复的条目带有类型，第一次命中后标记清除
+        assertTrue(after.takeRestored("cache:shopType:") instanceof ParameterizedType);
+        assertNull(after.takeRestored("cache:shopType:"));
+        assertEquals(Shop.class, after.takeRestored("cache:shop:1"));
+    }
+
+    @Test
+    void corruptedFileIsIgnored() throws IOException {
+        LocalCache before = localCache();
+        before.put("cache:shop:1", new Shop().setId(1L).setName("103茶餐厅"));
+        Path path = dir.resolve("l1.bin");
+        snapshot(before).save(path);
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.seek(file.length() - 1);
+            file.write(file.read() ^ 0xFF);
+        }
+        LocalCache after = localCache();
+        assertEquals(0, snapshot(after).load(path));
+        assertNull(after.get("cache:shop:1"));
+    }
+}
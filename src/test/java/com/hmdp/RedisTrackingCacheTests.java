@@ -0,0 +1,112 @@
+package com.hmdp;
+
+import com.hmdp.config.RedisTrackingProp;
+import com.hmdp.utils.RedisTrackingCache;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Redis客户端缓存的测试，需要本地的Redis 6.0以上
+ * 默认连接 localhost:6379，可以通过 -Dredis.host -Dredis.port -Dredis.password 修改，连接不上时跳过
+ */
+class RedisTrackingCacheTests {
+
+    private static final String KEY = "test:tracking:key";
+
+    private LettuceConnectionFactory factory;
+
+    private StringRedisTemplate redisTemplate;
+
+    private RedisTrackingCache trackingCache;
+
+    @BeforeEach
+    void setUp() {
+        RedisProperties redisProperties = new RedisProperties();
+        redisProperties.setHost(System.getProperty("redis.host", "localhost"));
+        redisProperties.setPort(Integer.parseInt(System.getProperty("redis.port", "6379")));
+        redisProperties.setPassword(System.getProperty("redis.password"));
+
+        RedisStandaloneConfiguration configuration = new RedisStandaloneConfiguration(
+                redisProperties.getHost(), redisProperties.getPort());
+        if (redisProperties.getPassword() != null) {
+            configuration.setPassword(redisProperties.getPassword());
+        }
+        factory = new LettuceConnectionFactory(configuration);
+        factory.afterPropertiesSet();
+        redisTemplate = new StringRedisTemplate(factory);
+
+        RedisTrackingProp prop = new RedisTrackingProp();
+        prop.setEnabled(true);
+        trackingCache = new RedisTrackingCache(prop, redisProperties, redisTemplate);
+        trackingCache.start();
+        assumeTrue(trackingCache.isActive(), "本地没有可用的Redis 6，跳过");
+        redisTemplate.delete(KEY);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (trackingCache.isActive()) {
+            redisTemplate.delete(KEY);
+        }
+        trackingCache.close();
+        factory.destroy();
+    }
+
+    @Test
+    void servesFromLocalUntilInvalidated() throws InterruptedException {
+        redisTemplate.opsForValue().set(KEY, "v1");
+        assertEquals("v1", trackingCache.get(KEY));
+        assertEquals("v1", trackingCache.get(KEY));
+        assertEquals(1, trackingCache.getHitCount());
+
+        // 其它连接修改后，Redis推送失效消息
+        redisTemplate.opsForValue().set(KEY, "v2");
+        assertEquals("v2", waitFor("v2"));
+        assertTrue(trackingCache.getInvalidationCount() > 0);
+
+        redisTemplate.delete(KEY);
+        assertNull(waitFor(null));
+    }
+
+    @Test
+    void returnsTtlAndMultiGet() {
+        redisTemplate.opsForValue().set(KEY, "v1", 60, TimeUnit.SECONDS);
+        RedisTrackingCache.Entry<String> entry = trackingCache.getWithTtl(KEY);
+        assertEquals("v1", entry.getValue());
+        assertTrue(entry.getTtlMillis() > 0 && entry.getTtlMillis() <= 60000);
+        assertEquals(Arrays.asList("v1", null), trackingCache.multiGet(Arrays.asList(KEY, KEY + ":missing")));
+    }
+
+    @Test
+    void fallsBackToPlainReadsWhenClosed() {
+        redisTemplate.opsForValue().set(KEY, "v1");
+        trackingCache.close();
+        assertFalse(trackingCache.isActive());
+        assertEquals("v1", trackingCache.get(KEY));
+        assertEquals("v1", trackingCache.getWithTtl(KEY).getValue());
+    }
+
+    /**
+     * 失效消息是异步推送的，最多等1秒
+     */
+    private String waitFor(String expected) throws InterruptedException {
+        String value = trackingCache.get(KEY);
+        for (int i = 0; i < 100 && !Objects.equals(expected, value); i++) {
+            Thread.sleep(10);
+            value = trackingCache.get(KEY);
+        }
+        return value;
+    }
+}
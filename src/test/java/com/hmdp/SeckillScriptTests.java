@@ -0,0 +1,145 @@
+package com.hmdp;
+
+import com.hmdp.config.SeckillProp;
+import com.hmdp.utils.SeckillOrderPartitions;
+import io.lettuce.core.cluster.SlotHash;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisClusterConfiguration;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * 秒杀脚本的key布局和执行
+ * key布局的测试不依赖Redis；单机的测试需要本地的Redis，
+ * 默认连接 localhost:6379，可以通过 -Dredis.host -Dredis.port -Dredis.password 修改，连接不上时跳过
+ * 集群的测试需要本地的Redis集群(例如 redis-cli --cluster create 创建的3主节点)，
+ * 通过 -Dredis.cluster.nodes=127.0.0.1:7000,127.0.0.1:7001,127.0.0.1:7002 指定，没有指定时跳过
+ */
+class SeckillScriptTests {
+
+    private SeckillOrderPartitions partitions(int count) {
+        SeckillProp prop = new SeckillProp();
+        prop.setPartitions(count);
+        prop.setInstanceId("test");
+        return new SeckillOrderPartitions(prop, null);
+    }
+
+    @Test
+    void keysOfVoucherShareOneSlot() {
+        SeckillOrderPartitions partitions = partitions(8);
+        Set<Integer> slots = new HashSet<>();
+        for (long voucherId = 1; voucherId <= 100; voucherId++) {
+            List<String> keys = partitions.seckillKeys(voucherId);
+            assertEquals(3, keys.size());
+            int slot = SlotHash.getSlot(keys.get(0));
+            for (String key : keys) {
+                assertEquals(slot, SlotHash.getSlot(key), key);
+            }
+            assertEquals(partitions.queue(partitions.partitionOf(voucherId)), keys.get(2));
+            slots.add(slot);
+        }
+        // 不同分区的优惠券落在不同的槽
+        assertEquals(8, slots.size());
+    }
+
+    @Test
+    void seckillOnCluster() {
+        String nodes = System.getProperty("redis.cluster.nodes");
+        assumeTrue(nodes != null && !nodes.isEmpty(), "没有指定 -Dredis.cluster.nodes，跳过");
+        RedisClusterConfiguration configuration = new RedisClusterConfiguration(Arrays.asList(nodes.split(",")));
+        if (System.getProperty("redis.password") != null) {
+            configuration.setPassword(System.getProperty("redis.password"));
+        }
+        LettuceConnectionFactory factory = new LettuceConnectionFactory(configuration);
+        factory.afterPropertiesSet();
+        StringRedisTemplate redisTemplate = new StringRedisTemplate(factory);
+        SeckillOrderPartitions partitions = partitions(8);
+        DefaultRedisScript<Long> script = script();
+        Set<Integer> slots = new HashSet<>();
+        try {
+            // 8个分区的优惠券分布在不同的槽(不同的分片)，每个脚本只访问自己的槽
+            for (long voucherId = 987654320L; voucherId < 987654328L; voucherId++) {
+                List<String> keys = partitions.seckillKeys(voucherId);
+                redisTemplate.delete(keys.get(0));
+                redisTemplate.delete(keys.get(1));
+                redisTemplate.delete(keys.get(2));
+                try {
+                    redisTemplate.opsForValue().set(keys.get(0), "1");
+                    assertEquals(0L, redisTemplate.execute(script, keys, String.valueOf(voucherId), "1", "100"));
+                    assertEquals(2L, redisTemplate.execute(script, keys, String.valueOf(voucherId), "1", "101"));
+                    assertEquals(1L, redisTemplate.execute(script, keys, String.valueOf(voucherId), "2", "102"));
+                    assertEquals(Long.valueOf(1), redisTemplate.opsForStream().size(keys.get(2)));
+                    slots.add(SlotHash.getSlot(keys.get(0)));
+                } finally {
+                    redisTemplate.delete(keys.get(0));
+                    redisTemplate.delete(keys.get(1));
+                    redisTemplate.delete(keys.get(2));
+                }
+            }
+            assertEquals(8, slots.size());
+        } finally {
+            factory.destroy();
+        }
+    }
+
+    private DefaultRedisScript<Long> script() {
+        DefaultRedisScript<Long> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource("lua/seckill.lua"));
+        script.setResultType(Long.class);
+        return script;
+    }
+
+    @Test
+    void seckillOnSingleNode() {
+        RedisStandaloneConfiguration configuration = new RedisStandaloneConfiguration(
+                System.getProperty("redis.host", "localhost"), Integer.parseInt(System.getProperty("redis.port", "6379")));
+        if (System.getProperty("redis.password") != null) {
+            configuration.setPassword(System.getProperty("redis.password"));
+        }
+        LettuceConnectionFactory factory = new LettuceConnectionFactory(configuration);
+        factory.afterPropertiesSet();
+        StringRedisTemplate redisTemplate = new StringRedisTemplate(factory);
+        try {
+            boolean available;
+            try {
+                available = "PONG".equals(redisTemplate.execute(RedisConnection::ping));
+            } catch (RuntimeException e) {
+                available = false;
+            }
+            assumeTrue(available, "本地没有可用的Redis，跳过");
+
+            DefaultRedisScript<Long> script = script();
+            Long voucherId = 987654321L;
+            List<String> keys = partitions(4).seckillKeys(voucherId);
+            redisTemplate.delete(keys);
+            try {
+                // 没有库存key
+                assertEquals(1L, redisTemplate.execute(script, keys, voucherId.toString(), "1", "100"));
+                redisTemplate.opsForValue().set(keys.get(0), "1");
+                assertEquals(0L, redisTemplate.execute(script, keys, voucherId.toString(), "1", "101"));
+                // 重复下单
+                assertEquals(2L, redisTemplate.execute(script, keys, voucherId.toString(), "1", "102"));
+                // 库存不足
+                assertEquals(1L, redisTemplate.execute(script, keys, voucherId.toString(), "2", "103"));
+                assertEquals("0", redisTemplate.opsForValue().get(keys.get(0)));
+                assertEquals(Long.valueOf(1), redisTemplate.opsForStream().size(keys.get(2)));
+            } finally {
+                redisTemplate.delete(keys);
+            }
+        } finally {
+            factory.destroy();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.hmdp;
+
+import com.hmdp.config.SeckillProp;
+import com.hmdp.utils.SeckillOrderPartitions;
+import com.hmdp.utils.SeckillSoldOutFlags;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 秒杀券售罄标记：库存key不存在时不标记，补货之前发出的售罄消息被忽略
+ * 不依赖Redis和Spring容器
+ */
+class SeckillSoldOutFlagsTests {
+
+    private static final long VOUCHER_ID = 7L;
+
+    private StringRedisTemplate redisTemplate;
+
+    private ValueOperations<String, String> valueOps;
+
+    private SeckillOrderPartitions partitions;
+
+    private SeckillSoldOutFlags flags;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        SeckillProp prop = new SeckillProp();
+        redisTemplate = mock(StringRedisTemplate.class);
+        valueOps = mock(ValueOperations.class);
+        when(redisTemplate.opsForValue()).thenReturn(valueOps);
+        partitions = new SeckillOrderPartitions(prop, redisTemplate);
+        flags = new SeckillSoldOutFlags(prop, redisTemplate, null, partitions);
+    }
+
+    @Test
+    void missingStockKeyNotSoldOut() {
+        when(valueOps.multiGet(anyList())).thenReturn(Arrays.asList(null, null));
+
+        flags.markSoldOut(VOUCHER_ID);
+        assertFalse(flags.isSoldOut(VOUCHER_ID));
+        verify(redisTemplate, never()).convertAndSend(anyString(), any());
+    }
+
+    @Test
+    void restockedAfterScriptNotSoldOut() {
+        when(valueOps.multiGet(anyList())).thenReturn(Arrays.asList("5", "1"));
+
+        flags.markSoldOut(VOUCHER_ID);
+        assertFalse(flags.isSoldOut(VOUCHER_ID));
+        verify(redisTemplate, never()).convertAndSend(anyString(), any());
+    }
+
+    @Test
+    void soldOutBroadcastWithGeneration() {
+        when(valueOps.multiGet(anyList())).thenReturn(Arrays.asList("0", "3"));
+
+        flags.markSoldOut(VOUCHER_ID);
+        assertTrue(flags.isSoldOut(VOUCHER_ID));
+        verify(redisTemplate).convertAndSend(anyString(), eq("S" + VOUCHER_ID + ":3"));
+    }
+
+    @Test
+    void staleSoldOutIgnoredAfterRestock() {
+        receive("R" + VOUCHER_ID + ":2");
+        // 补货之前(版本1)发出的售罄消息晚到
+        receive("S" + VOUCHER_ID + ":1");
+        assertFalse(flags.isSoldOut(VOUCHER_ID));
+
+        // 补货之后再次售罄
+        receive("S" + VOUCHER_ID + ":2");
+        assertTrue(flags.isSoldOut(VOUCHER_ID));
+
+        // 本节点补货：版本加1，清除标记
+        when(valueOps.increment(partitions.restockKey(VOUCHER_ID))).thenReturn(3L);
+        flags.clear(VOUCHER_ID);
+        assertFalse(flags.isSoldOut(VOUCHER_ID));
+        verify(redisTemplate).convertAndSend(anyString(), eq("R" + VOUCHER_ID + ":3"));
+        receive("S" + VOUCHER_ID + ":2");
+        assertFalse(flags.isSoldOut(VOUCHER_ID));
+    }
+
+    private void receive(String body) {
+        byte[] channel = "seckill:sold-out".getBytes(StandardCharsets.UTF_8);
+        flags.onMessage(new DefaultMessage(channel, body.getBytes(StandardCharsets.UTF_8)), null);
+    }
+}
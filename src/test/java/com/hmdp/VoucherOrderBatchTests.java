@@ -0,0 +1,187 @@
+package com.hmdp;
+
+import com.baomidou.mybatisplus.core.conditions.Wrapper;
+import com.baomidou.mybatisplus.extension.conditions.update.UpdateChainWrapper;
+import com.hmdp.config.SeckillProp;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.mapper.SeckillVoucherMapper;
+import com.hmdp.mapper.VoucherOrderMapper;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.service.impl.VoucherOrderServiceImpl;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.StreamOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 秒杀订单的批量写入和失败时逐条处理，不依赖Redis、MySQL和Spring容器
+ * 只有写入数据库的订单才会ack，失败的订单留在pendingList中
+ */
+class VoucherOrderBatchTests {
+
+    private static final String QUEUE = "stream.orders:{0}";
+
+    private static final String GROUP = "g1";
+
+    private VoucherOrderServiceImpl service;
+
+    private IVoucherOrderService proxy;
+
+    private StreamOperations<String, Object, Object> streamOps;
+
+    private RLock lock;
+
+    private final List<RecordId> acked = new ArrayList<>();
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        service = spy(new VoucherOrderServiceImpl());
+        proxy = mock(IVoucherOrderService.class);
+        StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
+        streamOps = mock(StreamOperations.class);
+        when(redisTemplate.opsForStream()).thenReturn(streamOps);
+        when(streamOps.acknowledge(eq(QUEUE), eq(GROUP), (RecordId[]) any())).thenAnswer(invocation -> {
+            for (int i = 2; i < invocation.getArguments().length; i++) {
+                acked.add(invocation.getArgument(i));
+            }
+            return (long) invocation.getArguments().length - 2;
+        });
+        RedissonClient redissonClient = mock(RedissonClient.class);
+        lock = mock(RLock.class);
+        when(redissonClient.getLock(anyString())).thenReturn(lock);
+        when(lock.tryLock()).thenReturn(true);
+
+        ReflectionTestUtils.setField(service, "proxy", proxy);
+        ReflectionTestUtils.setField(service, "stringRedisTemplate", redisTemplate);
+        ReflectionTestUtils.setField(service, "redissonClient", redissonClient);
+        ReflectionTestUtils.setField(service, "seckillProp", new SeckillProp());
+    }
+
+    @Test
+    void batchAckedTogether() {
+        List<MapRecord<String, Object, Object>> records = records(1, 2, 3);
+
+        assertEquals(3, handleRecords(records));
+        verify(proxy).createVoucherOrders(argThat(orders -> orders.size() == 3));
+        verify(proxy, never()).createVoucherOrder(any());
+        verify(streamOps, times(1)).acknowledge(eq(QUEUE), eq(GROUP), (RecordId[]) any());
+        assertEquals(ids(records), acked);
+    }
+
+    @Test
+    void failedBatchFallsBackPerOrderAndKeepsFailuresPending() {
+        List<MapRecord<String, Object, Object>> records = records(1, 2, 3);
+        doThrow(new IllegalStateException("库存不足！")).when(proxy).createVoucherOrders(anyList());
+        doThrow(new IllegalStateException("库存不足！")).when(proxy)
+                .createVoucherOrder(argThat(order -> order.getId() == 2L));
+
+        assertEquals(2, handleRecords(records));
+        verify(proxy, times(3)).createVoucherOrder(any());
+        // 第二个订单没有写入数据库，不能ack
+        assertEquals(Arrays.asList(records.get(0).getId(), records.get(2).getId()), acked);
+    }
+
+    @Test
+    void busyLockKeepsOrderPending() {
+        ((SeckillProp) ReflectionTestUtils.getField(service, "seckillProp")).setBatchEnabled(false);
+        when(lock.tryLock()).thenReturn(false);
+
+        assertEquals(0, handleRecords(records(1)));
+        verify(proxy, never()).createVoucherOrder(any());
+        assertTrue(acked.isEmpty());
+    }
+
+    @Test
+    void createVoucherOrdersSkipsBoughtAndGroupsStock() {
+        VoucherOrderMapper orderMapper = mock(VoucherOrderMapper.class);
+        SeckillVoucherMapper seckillMapper = mock(SeckillVoucherMapper.class);
+        mockDb(orderMapper, seckillMapper);
+        // 用户10已经买过优惠券100(上一次写入成功但没有ack)
+        when(orderMapper.selectList(any())).thenReturn(Collections.singletonList(order(0, 10, 100)));
+        List<String> sqlSets = new ArrayList<>();
+        when(seckillMapper.update(isNull(), any())).thenAnswer(invocation -> {
+            sqlSets.add(((Wrapper<?>) invocation.getArgument(1)).getSqlSet());
+            return 1;
+        });
+        List<VoucherOrder> saved = new ArrayList<>();
+        doAnswer(invocation -> saved.addAll(invocation.getArgument(0)))
+                .when(service).saveBatch(anyCollection(), anyInt());
+
+        service.createVoucherOrders(Arrays.asList(
+                order(1, 10, 100), order(2, 11, 100), order(3, 12, 100), order(4, 11, 200),
+                // 同一批次内重复的消息
+                order(5, 11, 200)));
+
+        assertEquals(Arrays.asList(2L, 3L, 4L), saved.stream().map(VoucherOrder::getId).collect(Collectors.toList()));
+        // 每个优惠券一条update，按优惠券id顺序
+        assertEquals(Arrays.asList("stock = stock - 2", "stock = stock - 1"), sqlSets);
+    }
+
+    @Test
+    void createVoucherOrdersFailsWhenStockShort() {
+        VoucherOrderMapper orderMapper = mock(VoucherOrderMapper.class);
+        SeckillVoucherMapper seckillMapper = mock(SeckillVoucherMapper.class);
+        mockDb(orderMapper, seckillMapper);
+        when(orderMapper.selectList(any())).thenReturn(Collections.emptyList());
+        when(seckillMapper.update(isNull(), any())).thenReturn(0);
+
+        assertThrows(IllegalStateException.class,
+                () -> service.createVoucherOrders(Arrays.asList(order(1, 10, 100), order(2, 11, 100))));
+        verify(service, never()).saveBatch(anyCollection(), anyInt());
+    }
+
+    private void mockDb(VoucherOrderMapper orderMapper, SeckillVoucherMapper seckillMapper) {
+        ISeckillVoucherService seckillVoucherService = mock(ISeckillVoucherService.class);
+        when(seckillVoucherService.update()).thenAnswer(invocation -> new UpdateChainWrapper<SeckillVoucher>(seckillMapper));
+        ReflectionTestUtils.setField(service, "baseMapper", orderMapper);
+        ReflectionTestUtils.setField(service, "seckillVoucherService", seckillVoucherService);
+    }
+
+    private int handleRecords(List<MapRecord<String, Object, Object>> records) {
+        Integer count = ReflectionTestUtils.invokeMethod(service, "handleRecords", QUEUE, GROUP, records);
+        return count == null ? 0 : count;
+    }
+
+    private static List<MapRecord<String, Object, Object>> records(long... orderIds) {
+        List<MapRecord<String, Object, Object>> records = new ArrayList<>();
+        for (long orderId : orderIds) {
+            Map<Object, Object> value = new HashMap<>();
+            value.put("id", String.valueOf(orderId));
+            value.put("userId", String.valueOf(10 + orderId));
+            value.put("voucherId", "100");
+            records.add(StreamRecords.newRecord().in(QUEUE).withId(RecordId.of("1-" + orderId)).ofMap(value));
+        }
+        return records;
+    }
+
+    private static List<RecordId> ids(List<MapRecord<String, Object, Object>> records) {
+        List<RecordId> ids = new ArrayList<>();
+        records.forEach(record -> ids.add(record.getId()));
+        return ids;
+    }
+
+    private static VoucherOrder order(long id, long userId, long voucherId) {
+        return new VoucherOrder().setId(id).setUserId(userId).setVoucherId(voucherId);
+    }
+}